@@ -1,4 +1,23 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.DoubleUnaryOperator;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 public class ANN {
     boolean verbose = false;
@@ -10,8 +29,41 @@ public class ANN {
     int maxEpochs = 50;
     double acceptableCost = 0.4; //If we get below this cost, we're done
     double learningRate = 0.01;
+    private Optimizer optimizer = new SGD(); // How training turns gradients into weight updates; change it with setOptimizer()
+    // Storage precision of every layer and buffer; training data is always double and gets converted on the way in
+    final Matrix.Precision precision;
+    // Initial weights, the data shuffle and batch sampling all draw from this; the next "ann" stream unless given one
+    final SplittableRandom gen;
+
+    // Reusable buffers so that steady-state training/inference doesn't allocate
+    TrainingData[] batchBuffer;
+    // trainEpoch(): the batch is split into `workers` contiguous shards, each with its own buffers in the workspace
+    int workers = 1;
+    ForkJoinPool workerPool; // Only when workers > 1
+    TrainingWorkspace workspace;
+    ShardTask[] shardTasks; // Reduction tree over workspace.shards (root first), built with it and reused every epoch
+    // trainInstance(): one set of vectors per training thread (see InstanceBuffers)
+    InstanceBuffers instanceBuffers;
+    HogwildWorker[] hogwildWorkers;
+    Activation instanceActivation = new ReLU();
+    // predict(): vectors[layer]
+    Matrix predictInput; // FLOAT only
+    Matrix[] predictBuffers;
 
     ANN(int[] layerSizes) {
+        this(layerSizes, Matrix.Precision.DOUBLE);
+    }
+
+    // FLOAT halves the memory of every layer and buffer and doubles the SIMD width;
+    // both precisions draw the same random initial weights for a given seed
+    ANN(int[] layerSizes, Matrix.Precision precision) {
+        this(layerSizes, precision, Utils.rng.stream("ann"));
+    }
+
+    // With its own generator, so networks can be built and trained concurrently and still reproducibly
+    ANN(int[] layerSizes, Matrix.Precision precision, SplittableRandom gen) {
+        this.precision = precision;
+        this.gen = gen;
         layers = new Layer[layerSizes.length - 1];
 
         for (int i = 0; i < layers.length; i++) {
@@ -22,10 +74,18 @@ public class ANN {
         costFunction = new MeanSquaredError();
     }
 
+    // layerCount empty layers, for loadCheckpoint(); draws nothing from gen
+    private ANN(int layerCount, Matrix.Precision precision) {
+        this.precision = precision;
+        this.gen = Utils.rng.stream("ann");
+        layers = new Layer[layerCount];
+        costFunction = new MeanSquaredError();
+    }
+
     void setData(List<TrainingData> data, double trainingRatio) {
         // Shuffle data
         for (int i = 0; i < data.size(); i++) {
-            int j = (int) (Utils.gen.nextDouble() * data.size());
+            int j = (int) (gen.nextDouble() * data.size());
             TrainingData temp = data.get(i);
             data.set(i, data.get(j));
             data.set(j, temp);
@@ -47,21 +107,200 @@ public class ANN {
         }
     }
 
+    // Feeds the instance in whichever encoding the first layer takes (see sparseInput())
+    Matrix predict(TrainingData instance) {
+        SparseVector sparse = sparseInput(instance);
+        return sparse != null ? predict(sparse) : predict(instance.inputData());
+    }
+
     // Input must be a vector of correct dimension
     Matrix predict(Matrix input) {
+        ensurePredictBuffers();
+        return feedForward(toNetworkPrecision(input, predictInput), 0);
+    }
 
-        // Feed forward
-        Matrix currLayer = input;
-        for (int i = 0; i < layers.length; i++) {
+    // Same as above, for a sparse (e.g. one-hot) input; the first layer only reads the non-zero columns
+    Matrix predict(SparseVector input) {
+        ensurePredictBuffers();
+        Layer first = layers[0];
+        Matrix firstLayer = calcLayerInto(first.weights, first.biases, input, first.activation, predictBuffers[0]);
+        return feedForward(firstLayer, 1);
+    }
+
+    // Runs `currLayer` through layers [from, end) and returns a copy of the output
+    private Matrix feedForward(Matrix currLayer, int from) {
+        for (int i = from; i < layers.length; i++) {
             Layer layer = layers[i];
 
-            currLayer = layer.weights
-                .mult(currLayer)
-                .add(layer.biases)
-                .map(layer.activation::f);
+            currLayer = calcLayerInto(layer.weights, layer.biases, currLayer, layer.activation, predictBuffers[i]);
+        }
+
+        return currLayer.copy();
+    }
+
+    private void ensurePredictBuffers() {
+        if (predictBuffers == null) {
+            predictBuffers = new Matrix[layers.length];
+            for (int i = 0; i < layers.length; i++) {
+                predictBuffers[i] = new Matrix(layers[i].weights.R, 1, precision);
+            }
+            if (precision != Matrix.Precision.DOUBLE) {
+                predictInput = new Matrix(layers[0].weights.C, 1, precision);
+            }
+        }
+    }
+
+    // The first layer takes an instance's one-hot SparseVector when it is exactly as wide as it, and the dense vector otherwise
+    private SparseVector sparseInput(TrainingData instance) {
+        SparseVector input = instance.sparseInputData();
+        return input != null && input.size == layers[0].weights.C ? input : null;
+    }
+
+    //===== BATCHED INFERENCE =====//
+    // Instances per chunk: each chunk runs as one GEMM per layer, and is the unit of work for the parallel path
+    static final int PREDICT_CHUNK = 256;
+
+    // The predicted class of every instance (the index of its largest output), plus the outputs themselves
+    static class Predictions {
+        final int outputs;
+        final int[] classes;
+        final double[] probabilities; // [instance * outputs + k]: the output layer's activations, always double
+
+        Predictions(int instances, int outputs) {
+            this.outputs = outputs;
+            classes = new int[instances];
+            probabilities = new double[instances * outputs];
         }
 
-        return currLayer;
+        double probability(int instance, int k) {
+            return probabilities[instance * outputs + k];
+        }
+
+        // Column vector copy of one instance's outputs, like predict() returns
+        Matrix output(int instance) {
+            return Matrix.columnVector(java.util.Arrays.copyOfRange(probabilities, instance * outputs, (instance + 1) * outputs));
+        }
+    }
+
+    // Every instance goes in through whichever encoding the first layer takes (see sparseInput())
+    Predictions predictBatch(TrainingData[] instances) {
+        return predictBatch(instances, false);
+    }
+
+    // With `parallel`, the chunks are spread across a parallel stream (and each chunk's products stay serial)
+    Predictions predictBatch(TrainingData[] instances, boolean parallel) {
+        return predictBatch(instances, null, instances.length, parallel);
+    }
+
+    // rows[i] holds the dense input features of instance i
+    Predictions predictBatch(double[][] rows) {
+        return predictBatch(rows, false);
+    }
+
+    Predictions predictBatch(double[][] rows, boolean parallel) {
+        return predictBatch(null, rows, rows.length, parallel);
+    }
+
+    // Exactly one of instances and rows is non-null
+    private Predictions predictBatch(TrainingData[] instances, double[][] rows, int n, boolean parallel) {
+        Predictions result = new Predictions(n, layers[layers.length-1].weights.R);
+        int chunks = (n + PREDICT_CHUNK - 1) / PREDICT_CHUNK;
+        if (parallel) {
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+                int from = c * PREDICT_CHUNK;
+                PredictBuffers buffers = new PredictBuffers(Math.min(PREDICT_CHUNK, n - from));
+                predictChunk(instances, rows, from, buffers, result, false);
+            });
+        }
+        else {
+            PredictBuffers full = null; // Shared by every full chunk
+            for (int from = 0; from < n; from += PREDICT_CHUNK) {
+                int size = Math.min(PREDICT_CHUNK, n - from);
+                PredictBuffers buffers = size < PREDICT_CHUNK ? new PredictBuffers(size)
+                    : full != null ? full : (full = new PredictBuffers(size));
+                predictChunk(instances, rows, from, buffers, result, true);
+            }
+        }
+        return result;
+    }
+
+    // Feeds instances [from, from + buffers.size) forward together and writes their classes/outputs into `result`
+    private void predictChunk(TrainingData[] instances, double[][] rows, int from, PredictBuffers buffers, Predictions result, boolean parallelGemm) {
+        int size = buffers.size;
+
+        //===== STACK THE CHUNK =====//
+        boolean sparse = instances != null;
+        for (int i = 0; i < size && sparse; i++) {
+            buffers.sparseInputs[i] = sparseInput(instances[from + i]);
+            sparse = buffers.sparseInputs[i] != null;
+        }
+        if (!sparse) {
+            for (int i = 0; i < size; i++) {
+                if (instances != null) {
+                    buffers.inputColumns[i].copyFrom(instances[from + i].inputData());
+                    continue;
+                }
+                double[] row = rows[from + i];
+                if (row.length != buffers.input.R)
+                    throw new RuntimeException("Illegal matrix dimensions. Row " + (from + i) + " has " + row.length + " features, expected " + buffers.input.R);
+                for (int f = 0; f < row.length; f++) {
+                    buffers.input.set(f, i, row[f]);
+                }
+            }
+        }
+
+        //===== FEED FORWARD =====//
+        Matrix a = buffers.input;
+        for (int l = 0; l < layers.length; l++) {
+            Layer layer = layers[l];
+            Matrix z = buffers.activations[l];
+            if (l == 0 && sparse) {
+                layer.weights.multInto(buffers.sparseInputs, z);
+            }
+            else if (parallelGemm) {
+                layer.weights.multInto(a, z);
+            }
+            else {
+                layer.weights.multInto(a, z, false);
+            }
+            z.addToColumns(layer.biases);
+            layer.activation.apply(z, z);
+            a = z;
+        }
+
+        //===== CLASSES & OUTPUTS =====//
+        for (int i = 0; i < size; i++) {
+            int best = 0;
+            for (int k = 0; k < a.R; k++) {
+                double p = a.get(k, i);
+                result.probabilities[(from + i) * result.outputs + k] = p;
+                if (p > a.get(best, i)) best = k;
+            }
+            result.classes[from + i] = best;
+        }
+    }
+
+    // One chunk's stacked inputs and activations[layer] (excluding the input layer), one column per instance
+    private class PredictBuffers {
+        final int size;
+        final Matrix input;
+        final Matrix[] inputColumns; // Column views of `input`
+        final SparseVector[] sparseInputs;
+        final Matrix[] activations;
+
+        PredictBuffers(int size) {
+            this.size = size;
+            input = new Matrix(layers[0].weights.C, size, precision);
+            inputColumns = new Matrix[size];
+            for (int i = 0; i < size; i++) {
+                inputColumns[i] = input.column(i);
+            }
+            sparseInputs = new SparseVector[size];
+            activations = new Matrix[layers.length];
+            for (int l = 0; l < layers.length; l++) {
+                activations[l] = new Matrix(layers[l].weights.R, size, precision);
+            }
+        }
     }
 
     void test() {
@@ -71,26 +310,26 @@ public class ANN {
         int negCorrect = 0;
         int posIncorrect = 0;
         int negIncorrect = 0;
+        Predictions predictions = predictBatch(testing);
         for (int i = 0; i < testing.length; i++) {
-            Matrix prediction = predict(testing[i].inputData());
             Matrix actual = testing[i].outputData();
 
-            if (prediction.argMax().equals(actual.argMax())) {
-                if ((int)prediction.get(1, 0) == 1) {
+            if (predictions.classes[i] == actual.argMax().r) {
+                if ((int)predictions.probability(i, 1) == 1) {
                     posCorrect++;
                 } else {
                     negCorrect++;
                 }
             }
             else {
-                if ((int)prediction.get(1, 0) == 1) {
+                if ((int)predictions.probability(i, 1) == 1) {
                     posIncorrect++;
                 } else {
                     negIncorrect++;
                 }
             }
 
-            double cost = costFunction.f(prediction, actual);
+            double cost = costFunction.f(predictions.output(i), actual);
             avgCost += cost;
         }
         int numCorrect = posCorrect + negCorrect;
@@ -112,10 +351,13 @@ public class ANN {
 
     // Pick a random sample of n elements from the training data
     TrainingData[] getRandomBatch() {
-        TrainingData[] result = new TrainingData[batchSize];
+        return getRandomBatch(new TrainingData[batchSize]);
+    }
 
-        for (int i = 0; i < batchSize; i++) {
-            result[i] = training[(int)(Utils.gen.nextDouble() * training.length)];
+    // Same as above, but refills an existing array
+    TrainingData[] getRandomBatch(TrainingData[] result) {
+        for (int i = 0; i < result.length; i++) {
+            result[i] = training[(int)(gen.nextDouble() * training.length)];
         }
 
         return result;
@@ -135,169 +377,844 @@ public class ANN {
     // Returns the average output cost for this epoch
     double trainEpoch() {
         // See [http://neuralnetworksanddeeplearning.com/chap2.html#exercises_675621]
+        // The batch is processed as a whole: column i of every batch matrix belongs to batch[i],
+        // so each layer costs one matrix-matrix product per pass instead of one matrix-vector product per instance
+        TrainingWorkspace ws = ensureWorkspace();
 
         // Get input/output data for this epoch
-        TrainingData[] batch = getRandomBatch();
+        getRandomBatch(ws.batch);
+        return trainWorkspaceBatch(ws);
+    }
 
-        //===== FEED FORWARD + CALCULATE ERRORS =====//
-        int numLayers = layers.length + 1; // Include input layer
-        Matrix[][] zVectors = new Matrix[numLayers][];
-        Matrix[][] aVectors = new Matrix[numLayers][]; //Include the input activation
-        Matrix[][] deltas = new Matrix[numLayers][]; // Error delta for last layer
-        // vectors[layer][instance in batch]
+    // One gradient step on the instances in ws.batch; returns their average cost
+    private double trainWorkspaceBatch(TrainingWorkspace ws) {
+        TrainingData[] batch = ws.batch;
 
-        // deltas[instance in batch]
-        double[] costs = new double[batch.length]; // Cost at output layer
-        double avgCost = 0; // Average cost across all instances
+        ws.sparse = true;
+        for (int i = 0; i < batch.length; i++) {
+            ws.sparseInputs[i] = sparseInput(batch[i]);
+            ws.sparse &= ws.sparseInputs[i] != null;
+        }
 
-        // Initialize z / a vectors
-        for (int l = 0; l < numLayers; l++) {
-            zVectors[l] = new Matrix[batch.length];
-            aVectors[l] = new Matrix[batch.length];
-            deltas[l] = new Matrix[batch.length];
+        //===== FEED FORWARD & BACKPROPAGATE =====//
+        // Every shard sums its own gradients, then the sums are reduced into shards[0]
+        if (ws.shards.length == 1) {
+            accumulate(ws.shards[0]);
+        }
+        else {
+            for (ShardTask task : shardTasks) {
+                task.reinitialize();
+            }
+            workerPool.invoke(shardTasks[0]);
         }
 
-        // For each instance in batch
+        double avgCost = 0; // Average cost across all instances
         for (int i = 0; i < batch.length; i++) {
+            avgCost += ws.costs[i];
+        }
+        avgCost /= batch.length;
+
+        //===== GRADIENT DESCENT =====//
+        // Average error delta & average delta*activation for each layer this epoch (not including the input layer)
+        Matrix[] avgDeltas = ws.shards[0].avgDeltas;
+        Matrix[] avgDeltaActivations = ws.shards[0].avgDeltaActivations;
+        for (int l = 0; l < layers.length; l++) {
+            avgDeltas[l].scaleInPlace(1.0/batch.length);
+            avgDeltaActivations[l].scaleInPlace(1.0/batch.length);
+        }
 
-            //========== FEED FORWARD ==========//
-            // First layer is input layer
-            Matrix firstLayer = batch[i].inputData();
-            zVectors[0][i] = firstLayer;
-            aVectors[0][i] = firstLayer; // Input layer activation is the identity function
+        //========== UPDATE WEIGHTS & BIASES ==========//
+        optimizer.step(avgDeltaActivations, avgDeltas);
 
-            Matrix prevLayer = firstLayer;
+        return avgCost;
+    }
 
-            // Feed forward the rest of the layers
-            for (int l = 0; l < layers.length; l++) {
-                Layer layer = layers[l];
-                int vl = l + 1; // Skip input layer
+    //===== STREAMING =====//
+    // Online learning without setData(): instances are fed in as they arrive and kept in a ring buffer of the last
+    // batchSize of them, which is trained on exactly like a trainEpoch() batch every streamStride arrivals
+    // Memory stays bounded by the batch size however long the stream is, and nothing is drawn from gen
+    int streamStride = 0; // New instances between updates; 0 means batchSize, so every instance is in exactly one batch
+    TrainingData[] streamBuffer; // Ring buffer; the next instance goes to streamHead
+    int streamHead;
+    int streamFilled; // Slots of streamBuffer in use, up to batchSize
+    int streamSinceStep; // Instances observed since the last update
+
+    // Returns the batch's average cost if this instance completed a batch (and so triggered an update), NaN otherwise
+    double observe(TrainingData instance) {
+        // A new batch size starts the ring over; instances still waiting in the old one are dropped
+        if (streamBuffer == null || streamBuffer.length != batchSize) {
+            streamBuffer = new TrainingData[batchSize];
+            streamHead = streamFilled = streamSinceStep = 0;
+        }
+        streamBuffer[streamHead] = instance;
+        streamHead = (streamHead + 1) % streamBuffer.length;
+        streamFilled = Math.min(streamFilled + 1, streamBuffer.length);
+        streamSinceStep++;
 
-                // Calculate z & a for each layer
-                zVectors[vl][i] = layer.weights
-                    .mult(prevLayer)
-                    .add(layer.biases);
+        int stride = streamStride > 0 ? Math.min(streamStride, batchSize) : batchSize;
+        if (streamFilled < streamBuffer.length || streamSinceStep < stride) return Double.NaN;
+        streamSinceStep = 0;
 
-                aVectors[vl][i] = zVectors[vl][i].map(layer.activation::f);
+        // Oldest first, so a given stream always makes the same batches
+        TrainingWorkspace ws = ensureWorkspace();
+        for (int i = 0; i < batchSize; i++) {
+            ws.batch[i] = streamBuffer[(streamHead + i) % batchSize];
+        }
+        return trainWorkspaceBatch(ws);
+    }
 
-                prevLayer = aVectors[vl][i];
-            }
+    // Observes everything left in the iterator; returns the number of updates it triggered
+    int observeAll(Iterator<? extends TrainingData> instances) {
+        int steps = 0;
+        while (instances.hasNext()) {
+            if (!Double.isNaN(observe(instances.next()))) steps++;
+        }
+        return steps;
+    }
 
-            //========== CALCULATE ERROR DELTA & COST ==========//
-            costs[i] = costFunction.f(prevLayer, batch[i].outputData());
-            avgCost += costs[i];
+    int observeAll(Stream<? extends TrainingData> instances) {
+        return observeAll(instances.iterator());
+    }
 
-            Matrix outputError = costFunction.outputError(prevLayer, batch[i].outputData()); // (∇a.C)
+    // Split every trainEpoch() batch across this many threads (at most one per instance); also the trainHogwild() thread count
+    // Results are deterministic for a given seed and worker count; different counts only differ by floating point rounding
+    void setWorkers(int workers) {
+        if (workers < 1)
+            throw new IllegalArgumentException("Need at least 1 worker, got " + workers);
+        if (workerPool != null) {
+            workerPool.shutdown();
+        }
+        this.workers = workers;
+        workerPool = workers > 1 ? new ForkJoinPool(workers) : null;
+        hogwildWorkers = null;
+    }
 
-            // Calculate error delta for output layer
-            // δL = (∇a.C) ⊙ σ′(zL)
-            deltas[numLayers-1][i] = outputError.hadamard(
-                zVectors[numLayers-1][i].map(
-                    layers[layers.length-1].activation::df
-                )
-            );
+    private TrainingData[] reusableBatch() {
+        if (batchBuffer == null || batchBuffer.length != batchSize) {
+            batchBuffer = new TrainingData[batchSize];
         }
-        avgCost /= costs.length;
+        return batchBuffer;
+    }
 
-        //===== BACKPROPAGATE =====//
-        // Backpropagate the error delta for this epoch through all layers
-        for (int i = 0; i < batch.length; i++) {
-            for (int l = (layers.length-1)-1; l >= 0; l--) {
-                int vl = l + 1; // Skip input layer
+    // The workspace only gets (re)allocated when the batch size or worker count has changed since the last epoch
+    private TrainingWorkspace ensureWorkspace() {
+        if (workspace != null && workspace.fits(batchSize, workers)) return workspace;
+
+        workspace = new TrainingWorkspace(layerSizes(), batchSize, workers, precision);
+        int numShards = workspace.shards.length;
+        shardTasks = new ShardTask[numShards > 1 ? 2 * numShards - 1 : 0];
+        if (numShards > 1) {
+            buildShardTasks(0, numShards, 0);
+        }
+        return workspace;
+    }
+
+    // Fills shardTasks[next..] with the subtree over shards [lo, hi), and returns the index after it
+    private int buildShardTasks(int lo, int hi, int next) {
+        ShardTask task = new ShardTask(lo, hi);
+        shardTasks[next++] = task;
+        if (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            task.left = shardTasks[next];
+            next = buildShardTasks(lo, mid, next);
+            task.right = shardTasks[next];
+            next = buildShardTasks(mid, hi, next);
+        }
+        return next;
+    }
+
+    // Layer widths, including the input layer
+    int[] layerSizes() {
+        int[] sizes = new int[layers.length + 1];
+        sizes[0] = layers[0].weights.C;
+        for (int l = 0; l < layers.length; l++) {
+            sizes[l + 1] = layers[l].weights.R;
+        }
+        return sizes;
+    }
 
-                deltas[vl][i] = layers[l+1].weights.transpose().mult(deltas[vl+1][i])
-                    .hadamard(zVectors[vl][i].map(layers[l].activation::df));
+    // Runs shards [lo, hi) and sums their gradients into shards[lo], halving the range at every level
+    // The tree's shape only depends on the number of shards, so the reduction order doesn't depend on thread scheduling
+    @SuppressWarnings("serial") // Never serialized
+    private class ShardTask extends RecursiveAction {
+        final int lo, hi;
+        ShardTask left, right; // Both null for a single shard
+
+        ShardTask(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            TrainingWorkspace.Shard[] shards = workspace.shards;
+            if (left == null) {
+                accumulate(shards[lo]);
+                return;
             }
+            invokeAll(left, right);
+            shards[lo].addGradients(shards[right.lo]);
         }
+    }
 
-        //===== GRADIENT DESCENT =====//
-        // Calculate the average error delta & average delta*activation for each layer this epoch
-        Matrix[] avgDeltas = new Matrix[layers.length];
-        Matrix[] avgDeltaActivations = new Matrix[layers.length];
-        // Averages do not include input layer
+    // Feeds a shard's instances forward and back, leaving their costs in workspace.costs and their gradient sums in the shard
+    private void accumulate(TrainingWorkspace.Shard shard) {
+        TrainingData[] batch = workspace.batch;
+        boolean sparse = workspace.sparse;
+        SparseVector[] sparseInputs = shard.sparseInputs;
+        Matrix[] aBatch = shard.aBatch;
+        Matrix[] deltaBatch = shard.deltaBatch;
+        int from = shard.from;
 
+        //===== STACK THE SHARD =====//
+        int numLayers = layers.length + 1; // Include input layer
+        for (int i = 0; i < shard.size(); i++) {
+            shard.targetColumns[i].copyFrom(batch[from + i].outputData());
+            if (sparse) {
+                sparseInputs[i] = workspace.sparseInputs[from + i];
+            }
+            else {
+                shard.inputColumns[i].copyFrom(batch[from + i].inputData()); // Input layer activation is the identity function
+            }
+        }
+
+        //===== FEED FORWARD =====//
+        // z = W a + b, a = σ(z), with z overwritten by a: backprop works from the outputs
         for (int l = 0; l < layers.length; l++) {
+            Layer layer = layers[l];
             int vl = l + 1; // Skip input layer
 
-            avgDeltas[l] = new Matrix(deltas[vl][0].R, deltas[vl][0].C);
+            if (l == 0 && sparse) {
+                layer.weights.multInto(sparseInputs, aBatch[vl]);
+            }
+            else {
+                shardGemmInto(layer.weights, aBatch[vl-1], aBatch[vl]);
+            }
+            aBatch[vl].addToColumns(layer.biases);
 
-            avgDeltaActivations[l] = new Matrix(deltas[vl][0].R, aVectors[vl-1][0].R);
+            layer.activation.apply(aBatch[vl], aBatch[vl]);
+        }
+
+        //===== CALCULATE ERROR DELTA & COST =====//
+        // Cost functions work on single vectors, so these go instance by instance
+        for (int i = 0; i < shard.size(); i++) {
+            workspace.costs[from + i] = costFunction.f(shard.outputColumns[i], shard.targetColumns[i]);
+            costFunction.outputErrorInto(shard.outputColumns[i], shard.targetColumns[i], shard.outputDeltaColumns[i]); // (∇a.C)
+        }
 
-            // System.out.println("LAYER:\n" + layers[l].weights);
+        // Calculate error delta for output layer
+        // δL = (∇a.C) ⊙ σ′(zL), with σ′ taken from the cached outputs aL
+        layers[layers.length-1].activation.multDerivativeFromOutput(deltaBatch[numLayers-1], aBatch[numLayers-1]);
 
-            for (int i = 0; i < batch.length; i++) {
-                avgDeltas[l] = avgDeltas[l].add(deltas[vl][i]);
+        //===== BACKPROPAGATE =====//
+        // δl = (W(l+1)^T δ(l+1)) ⊙ σ′(zl)
+        for (int l = (layers.length-1)-1; l >= 0; l--) {
+            int vl = l + 1; // Skip input layer
 
-                avgDeltaActivations[l] = avgDeltaActivations[l].add(
-                    deltas[vl][i].mult(aVectors[vl-1][i].transpose())
-                );
+            layers[l+1].weights.transposeMultInto(deltaBatch[vl+1], deltaBatch[vl]);
+            layers[l].activation.multDerivativeFromOutput(deltaBatch[vl], aBatch[vl]);
+        }
+
+        //===== GRADIENT SUMS =====//
+        // Summing δ a^T over the shard is a single product of the stacked matrices: δ * A(l-1)^T
+        for (int l = 0; l < layers.length; l++) {
+            int vl = l + 1; // Skip input layer
+
+            deltaBatch[vl].rowSumsInto(shard.avgDeltas[l]);
+            if (l == 0 && sparse) {
+                deltaBatch[vl].multTransposeInto(sparseInputs, shard.avgDeltaActivations[l]);
             }
+            else {
+                shardGemmInto(deltaBatch[vl], aBatch[vl-1].transposeInto(shard.aBatchT[vl-1]), shard.avgDeltaActivations[l]);
+            }
+        }
+    }
+
+    // A lone shard may still split its products across Matrix's pool; shards running side by side keep them serial
+    private void shardGemmInto(Matrix X, Matrix Y, Matrix dst) {
+        if (workspace.shards.length == 1) X.multInto(Y, dst);
+        else X.multInto(Y, dst, false);
+    }
 
-            avgDeltas[l] = avgDeltas[l].mult(1.0/batch.length);
-            avgDeltaActivations[l] = avgDeltaActivations[l].mult(1.0/batch.length);
+    //===== OFF-HEAP WEIGHTS =====//
+    // Model file layout (little-endian):
+    //   int magic, int layerCount, (int rows, int cols) per layer, zero-padded to a multiple of 8 bytes,
+    //   then per layer its weights followed by its biases as row-major doubles
+    // (files are always double precision, so mapping one into a FLOAT network makes its layers double again)
+    static final int WEIGHTS_MAGIC = 0x4E4E5731; // "NNW1"
+
+    void saveWeights(Path path) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(weightsHeaderSize()).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(WEIGHTS_MAGIC).putInt(layers.length);
+        for (Layer layer : layers) {
+            header.putInt(layer.weights.R).putInt(layer.weights.C);
         }
+        header.clear();
 
-        //========== UPDATE WEIGHTS & BIASES ==========//
+        try (FileChannel channel = openForWriting(path)) {
+            writeParameters(channel, channel.write(header, 0));
+        }
+    }
+
+    // Point every layer's weights/biases straight at a model file written by saveWeights(), without copying
+    // READ_ONLY for inference, PRIVATE to train without touching the file, READ_WRITE to train the file in place
+    void mapWeights(Path path, FileChannel.MapMode mode) throws IOException {
+        try (FileChannel channel = openForMapping(path, mode)) {
+            ByteBuffer header = ByteBuffer.allocate(weightsHeaderSize()).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            header.flip();
+
+            if (header.remaining() < 8 || header.getInt() != WEIGHTS_MAGIC || header.getInt() != layers.length)
+                throw new IOException("Not a weights file for this network: " + path);
+            for (Layer layer : layers) {
+                if (header.getInt() != layer.weights.R || header.getInt() != layer.weights.C)
+                    throw new IOException("Layer sizes in " + path + " don't match this network");
+            }
+
+            mapParameters(channel, header.capacity(), layerSizes(), mode);
+        }
+    }
+
+    // Move every layer's weights/biases into native memory outside the Java heap
+    void moveOffHeap() {
+        for (Layer layer : layers) {
+            layer.weights = Matrix.allocateDirect(layer.weights.R, layer.weights.C).copyFrom(layer.weights);
+            layer.biases = Matrix.allocateDirect(layer.biases.R, layer.biases.C).copyFrom(layer.biases);
+        }
+    }
+
+    // Copy every layer's weights/biases back onto the Java heap, e.g. to train a mapped network on the fast paths
+    void moveOnHeap() {
+        for (Layer layer : layers) {
+            layer.weights = layer.weights.copy();
+            layer.biases = layer.biases.copy();
+        }
+    }
+
+    private int weightsHeaderSize() {
+        int bytes = 8 + 8 * layers.length;
+        return (bytes + 7) / 8 * 8;
+    }
+
+    // Every layer's weights followed by its biases, from `position` on; returns the position after them
+    private long writeParameters(FileChannel channel, long position) throws IOException {
+        for (Layer layer : layers) {
+            layer.weights.writeTo(channel, position);
+            position += (long)layer.weights.R * layer.weights.C * Double.BYTES;
+            layer.biases.writeTo(channel, position);
+            position += (long)layer.biases.R * Double.BYTES;
+        }
+        return position;
+    }
+
+    // The inverse of writeParameters(), for layers of the given sizes (including the input layer, like layerSizes())
+    // Mappings stay valid after the channel is closed
+    private void mapParameters(FileChannel channel, long position, int[] sizes, FileChannel.MapMode mode) throws IOException {
         for (int l = 0; l < layers.length; l++) {
-            Layer layer = layers[l];
+            int inputs = sizes[l];
+            int neurons = sizes[l + 1];
+            layers[l].weights = Matrix.map(channel, position, neurons, inputs, mode);
+            position += (long)neurons * inputs * Double.BYTES;
+            layers[l].biases = Matrix.map(channel, position, neurons, 1, mode);
+            position += (long)neurons * Double.BYTES;
+        }
+    }
 
-            // System.out.print("DA\n" + Main.BLUE + avgDeltaActivations[l] + Main.RESET);
-            layer.weights = layer.weights.add(
-                avgDeltaActivations[l].mult(-learningRate)
-            );
+    private static FileChannel openForWriting(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
 
-            // System.out.print("D\n" + Main.BLUE + avgDeltas[l] + Main.RESET);
-            layer.biases = layer.biases.add(
-                avgDeltas[l].mult(-learningRate)
-            );
+    // (PRIVATE mappings also need a writable channel, even though they never write back)
+    private static FileChannel openForMapping(Path path, FileChannel.MapMode mode) throws IOException {
+        return FileChannel.open(path, mode == FileChannel.MapMode.READ_ONLY
+            ? new StandardOpenOption[] { StandardOpenOption.READ }
+            : new StandardOpenOption[] { StandardOpenOption.READ, StandardOpenOption.WRITE });
+    }
+
+    //===== CHECKPOINTS =====//
+    // A whole network in one file: its precision, topology and activations as well as its parameters, so it can be
+    // rebuilt by loadCheckpoint() alone. Layout (little-endian):
+    //   int magic, int version, int precision (Matrix.Precision ordinal), int layerCount,
+    //   per layer: int rows, int cols, int activation (index into CHECKPOINT_ACTIVATIONS), int 0, double activation parameter,
+    //   then the parameters exactly as in a weights file (always double, 8-byte aligned), so loading maps them in place
+    // Readers reject versions newer than CHECKPOINT_VERSION; bump it whenever the layout changes
+    static final int CHECKPOINT_MAGIC = 0x4E4E4350; // "NNCP"
+    static final int CHECKPOINT_VERSION = 1;
+    private static final int CHECKPOINT_PREFIX = 16;
+    private static final int CHECKPOINT_LAYER = 24;
+    // Append only: the index is what's stored
+    static final String[] CHECKPOINT_ACTIVATIONS = {"Identity", "ReLU", "LeakyReLU", "Sigmoid", "Tanh", "Softmax"};
+
+    // Optimizer state isn't saved: a resumed network starts its optimizer afresh
+    void saveCheckpoint(Path path) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(CHECKPOINT_PREFIX + CHECKPOINT_LAYER * layers.length).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(CHECKPOINT_MAGIC).putInt(CHECKPOINT_VERSION).putInt(precision.ordinal()).putInt(layers.length);
+        for (Layer layer : layers) {
+            Activation activation = layer.activation;
+            int id = Arrays.asList(CHECKPOINT_ACTIVATIONS).indexOf(activation.getClass().getSimpleName());
+            if (id < 0) throw new IOException("Can't checkpoint activation " + activation.getClass().getName());
+            header.putInt(layer.weights.R).putInt(layer.weights.C).putInt(id).putInt(0);
+            header.putDouble(activation instanceof LeakyReLU ? ((LeakyReLU)activation).alpha : 0);
         }
+        header.clear();
 
-        return avgCost;
+        // Written next to the target and renamed over it, so a network still mapped from the old file keeps its pages
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = openForWriting(temp)) {
+            writeParameters(channel, channel.write(header, 0));
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // A new network rebuilt from a checkpoint, with its parameters mapped from the file (see mapWeights() for the modes)
+    // Draws nothing from gen; a FLOAT checkpoint is copied back into float matrices rather than mapped
+    static ANN loadCheckpoint(Path path, FileChannel.MapMode mode) throws IOException {
+        try (FileChannel channel = openForMapping(path, mode)) {
+            ByteBuffer header = readCheckpointHeader(channel, path);
+            Matrix.Precision[] precisions = Matrix.Precision.values();
+            int precision = header.getInt(8);
+            if (precision < 0 || precision >= precisions.length)
+                throw new IOException("Unknown precision " + precision + " in " + path);
+
+            ANN ann = new ANN(header.getInt(12), precisions[precision]);
+            for (int l = 0; l < ann.layers.length; l++) {
+                ann.layers[l] = ann.new Layer();
+            }
+            ann.readCheckpoint(channel, header, path, mode);
+            return ann;
+        }
+    }
+
+    // Load a checkpoint into this network, which must have the same layer sizes; keeps this network's precision
+    void restoreCheckpoint(Path path, FileChannel.MapMode mode) throws IOException {
+        try (FileChannel channel = openForMapping(path, mode)) {
+            ByteBuffer header = readCheckpointHeader(channel, path);
+            if (header.getInt(12) != layers.length)
+                throw new IOException("Checkpoint " + path + " has " + header.getInt(12) + " layers, this network has " + layers.length);
+            for (int l = 0; l < layers.length; l++) {
+                int at = CHECKPOINT_PREFIX + CHECKPOINT_LAYER * l;
+                if (header.getInt(at) != layers[l].weights.R || header.getInt(at + 4) != layers[l].weights.C)
+                    throw new IOException("Layer sizes in " + path + " don't match this network");
+            }
+            readCheckpoint(channel, header, path, mode);
+        }
+    }
+
+    // The whole header, checked as far as it can be without a network
+    private static ByteBuffer readCheckpointHeader(FileChannel channel, Path path) throws IOException {
+        ByteBuffer prefix = ByteBuffer.allocate(CHECKPOINT_PREFIX).order(ByteOrder.LITTLE_ENDIAN);
+        channel.read(prefix, 0);
+        if (prefix.position() < CHECKPOINT_PREFIX || prefix.getInt(0) != CHECKPOINT_MAGIC)
+            throw new IOException("Not a network checkpoint: " + path);
+        int version = prefix.getInt(4);
+        if (version < 1 || version > CHECKPOINT_VERSION)
+            throw new IOException("Unsupported checkpoint version " + version + " in " + path);
+        int layerCount = prefix.getInt(12);
+        if (layerCount < 1)
+            throw new IOException("Bad layer count " + layerCount + " in " + path);
+
+        ByteBuffer header = ByteBuffer.allocate(CHECKPOINT_PREFIX + CHECKPOINT_LAYER * layerCount).order(ByteOrder.LITTLE_ENDIAN);
+        channel.read(header, 0);
+        if (header.position() < header.capacity())
+            throw new IOException("Truncated checkpoint: " + path);
+
+        long parameters = 0;
+        for (int l = 0; l < layerCount; l++) {
+            int at = CHECKPOINT_PREFIX + CHECKPOINT_LAYER * l;
+            int rows = header.getInt(at), cols = header.getInt(at + 4);
+            if (rows < 1 || cols < 1 || (l > 0 && cols != header.getInt(at - CHECKPOINT_LAYER)))
+                throw new IOException("Inconsistent layer sizes in " + path);
+            parameters += (long)rows * cols + rows;
+        }
+        if (channel.size() < header.capacity() + parameters * Double.BYTES)
+            throw new IOException("Truncated checkpoint: " + path);
+        return header;
+    }
+
+    // Activations from a checked header, then the parameters mapped in after it
+    private void readCheckpoint(FileChannel channel, ByteBuffer header, Path path, FileChannel.MapMode mode) throws IOException {
+        int[] sizes = new int[layers.length + 1];
+        sizes[0] = header.getInt(CHECKPOINT_PREFIX + 4);
+        for (int l = 0; l < layers.length; l++) {
+            int at = CHECKPOINT_PREFIX + CHECKPOINT_LAYER * l;
+            sizes[l + 1] = header.getInt(at);
+            layers[l].activation = checkpointActivation(header.getInt(at + 8), header.getDouble(at + 16), path);
+        }
+
+        mapParameters(channel, header.capacity(), sizes, mode);
+        for (Layer layer : layers) {
+            if (precision != Matrix.Precision.DOUBLE) {
+                layer.weights = layer.weights.toPrecision(precision);
+                layer.biases = layer.biases.toPrecision(precision);
+            }
+        }
+        resetOptimizerState();
+    }
+
+    private Activation checkpointActivation(int id, double parameter, Path path) throws IOException {
+        switch (id >= 0 && id < CHECKPOINT_ACTIVATIONS.length ? CHECKPOINT_ACTIVATIONS[id] : "") {
+            case "Identity":  return new Identity();
+            case "ReLU":      return new ReLU();
+            case "LeakyReLU": return new LeakyReLU(parameter);
+            case "Sigmoid":   return new Sigmoid();
+            case "Tanh":      return new Tanh();
+            case "Softmax":   return new Softmax();
+            default: throw new IOException("Unknown activation " + id + " in " + path);
+        }
     }
 
     class Layer {
         Matrix weights;
         Matrix biases;
         Activation activation;
+        // Optimizer state, shaped like weights/biases; allocated by Optimizer.init() (null when the optimizer keeps none)
+        Matrix weightVelocity, biasVelocity; // Momentum's velocity, Adam's first moment
+        Matrix weightSquares, biasSquares;   // Adam's second moment
+        int steps;                           // Adam's t, the updates this layer has had
 
         Layer(int inputs, int neurons) {
-            this.weights = Matrix.random(neurons, inputs);
-            this.biases = Matrix.random(neurons, 1);
+            this.weights = Matrix.random(neurons, inputs, gen);
+            this.biases = Matrix.random(neurons, 1, gen);
+            if (precision != Matrix.Precision.DOUBLE) {
+                this.weights = weights.toPrecision(precision);
+                this.biases = biases.toPrecision(precision);
+            }
             this.activation = new ReLU();
         }
+
+        // Empty, for loadCheckpoint() to fill in
+        Layer() {}
     }
 
     // Template method
-    interface Activation {
-        public double f(double x);
-        public double df(double x);
+    // σ applied to whole vectors: the array forms take one run as one vector, the matrix forms one column per instance
+    // Backprop goes through the derivative from the output, i.e. σ′ in terms of a = σ(z), so it reuses the forward pass's outputs
+    // Element-wise activations also have a per-element form (see ElementwiseActivation); Softmax doesn't
+    abstract class Activation {
+        //===== ARRAY FORMS =====//
+        // out[outOffset + i] = σ(in)[inOffset + i] for i < length (out may be in)
+        public abstract void apply(double[] in, int inOffset, double[] out, int outOffset, int length);
+
+        // d[dOffset + i] = (σ′ᵀ d)[i], given the outputs a[aOffset + i] = σ(z) for i < length
+        public abstract void derivativeFromOutput(double[] a, int aOffset, double[] d, int dOffset, int length);
+
+        public void apply(double[] in, double[] out) { apply(in, 0, out, 0, in.length); }
+        public void derivativeFromOutput(double[] a, double[] d) { derivativeFromOutput(a, 0, d, 0, a.length); }
+
+        //===== MATRIX FORMS =====//
+        // a = σ(z) (a may be z)
+        public abstract void apply(Matrix z, Matrix a);
+        // d = σ′ᵀ d, given a = σ(z)
+        public abstract void multDerivativeFromOutput(Matrix d, Matrix a);
+        // d = σ′ᵀ d from the inputs z; allocates a to go through the outputs, so element-wise activations override it
+        public void multDerivative(Matrix d, Matrix z) {
+            Matrix a = new Matrix(z.R, z.C, z.precision());
+            apply(z, a);
+            multDerivativeFromOutput(d, a);
+        }
     }
-    class Identity implements Activation {
+
+    // An element-wise activation is itself the primitive operator σ, so it can be passed straight to Matrix.map/mapInto
+    abstract class ElementwiseActivation extends Activation implements DoubleUnaryOperator {
+        public abstract double f(double x);
+        public abstract double df(double x);
+        public abstract double dfFromOutput(double a);
+
+        // σ′ as a primitive operator, bound once so the hot loops don't allocate it
+        final DoubleUnaryOperator derivative = this::df;
+        final DoubleUnaryOperator derivativeFromOutput = this::dfFromOutput;
+        // The array forms as Matrix.RunKernels, bound once for the same reason
+        final Matrix.RunKernel applyRuns = this::apply;
+        final Matrix.RunKernel derivativeRuns = this::derivativeFromOutput;
+
+        @Override public double applyAsDouble(double x) { return f(x); }
+
+        //===== ARRAY FORMS =====//
+        // Generic loops over f/dfFromOutput; subclasses override them with their own loops, which the JIT can inline
+        @Override public void apply(double[] in, int inOffset, double[] out, int outOffset, int length) {
+            for (int i = 0; i < length; i++)
+                out[outOffset + i] = f(in[inOffset + i]);
+        }
+
+        // d[dOffset + i] *= σ′, given the outputs a[aOffset + i] = σ(z) for i < length
+        @Override public void derivativeFromOutput(double[] a, int aOffset, double[] d, int dOffset, int length) {
+            for (int i = 0; i < length; i++)
+                d[dOffset + i] *= dfFromOutput(a[aOffset + i]);
+        }
+
+        //===== MATRIX FORMS =====//
+        // Through the array forms for heap double matrices, element by element otherwise; override these where Matrix has a vectorised kernel
+        @Override public void apply(Matrix z, Matrix a) { if (!z.zipRuns(applyRuns, a)) z.mapInto(this, a); }
+        // d = d ⊙ σ′(z)
+        @Override public void multDerivative(Matrix d, Matrix z) { d.hadamardInPlace(z, derivative); }
+        // d = d ⊙ σ′(z), given a = σ(z)
+        @Override public void multDerivativeFromOutput(Matrix d, Matrix a) { if (!a.zipRuns(derivativeRuns, d)) d.hadamardInPlace(a, derivativeFromOutput); }
+    }
+    class Identity extends ElementwiseActivation {
         @Override public double f(double x)  { return x; }
         @Override public double df(double x) { return 1; }
+        @Override public double dfFromOutput(double a) { return 1; }
+
+        @Override public void apply(Matrix z, Matrix a) { if (a != z) a.copyFrom(z); }
+        @Override public void multDerivativeFromOutput(Matrix d, Matrix a) {}
     }
-    class ReLU implements Activation {
+    class ReLU extends ElementwiseActivation {
         @Override public double f(double x)  { return Math.max(0, x); }
         @Override public double df(double x) { return x > 0 ? 1 : 0; }
+        @Override public double dfFromOutput(double a) { return a > 0 ? 1 : 0; }
+
+        @Override public void apply(Matrix z, Matrix a) { z.maxInto(0, a); }
+        @Override public void multDerivative(Matrix d, Matrix z) { d.hadamardStepInPlace(z); }
+        @Override public void multDerivativeFromOutput(Matrix d, Matrix a) { d.hadamardStepInPlace(a); } // a > 0 exactly when z > 0
     }
 
-    class Sigmoid implements Activation {
+    // ReLU with a small slope for negative inputs, so those neurons still get a gradient
+    class LeakyReLU extends ElementwiseActivation {
+        final double alpha;
+
+        LeakyReLU() { this(0.01); }
+        LeakyReLU(double alpha) { this.alpha = alpha; }
+
+        @Override public double f(double x)  { return x > 0 ? x : alpha * x; }
+        @Override public double df(double x) { return x > 0 ? 1 : alpha; }
+        @Override public double dfFromOutput(double a) { return a > 0 ? 1 : alpha; } // a has the sign of z (alpha > 0)
+
+        @Override public void apply(double[] in, int inOffset, double[] out, int outOffset, int length) {
+            for (int i = 0; i < length; i++) {
+                double x = in[inOffset + i];
+                out[outOffset + i] = x > 0 ? x : alpha * x;
+            }
+        }
+
+        @Override public void derivativeFromOutput(double[] a, int aOffset, double[] d, int dOffset, int length) {
+            for (int i = 0; i < length; i++)
+                d[dOffset + i] *= a[aOffset + i] > 0 ? 1 : alpha;
+        }
+    }
+
+    class Sigmoid extends ElementwiseActivation {
         @Override public double f(double x)  { return 1 / (1 + Math.exp(-x)); }
-        @Override public double df(double x) { return f(x) * (1 - f(x)); }
+        @Override public double df(double x) { return dfFromOutput(f(x)); }
+        @Override public double dfFromOutput(double a) { return a * (1 - a); }
+
+        @Override public void apply(double[] in, int inOffset, double[] out, int outOffset, int length) {
+            for (int i = 0; i < length; i++)
+                out[outOffset + i] = 1 / (1 + Math.exp(-in[inOffset + i]));
+        }
+
+        @Override public void derivativeFromOutput(double[] a, int aOffset, double[] d, int dOffset, int length) {
+            for (int i = 0; i < length; i++) {
+                double ai = a[aOffset + i];
+                d[dOffset + i] *= ai * (1 - ai);
+            }
+        }
+    }
+
+    class Tanh extends ElementwiseActivation {
+        @Override public double f(double x)  { return Math.tanh(x); }
+        @Override public double df(double x) { return dfFromOutput(f(x)); }
+        @Override public double dfFromOutput(double a) { return 1 - a * a; }
+
+        @Override public void apply(double[] in, int inOffset, double[] out, int outOffset, int length) {
+            for (int i = 0; i < length; i++)
+                out[outOffset + i] = Math.tanh(in[inOffset + i]);
+        }
+
+        @Override public void derivativeFromOutput(double[] a, int aOffset, double[] d, int dOffset, int length) {
+            for (int i = 0; i < length; i++) {
+                double ai = a[aOffset + i];
+                d[dOffset + i] *= 1 - ai * ai;
+            }
+        }
+    }
+
+    // Normalises a whole vector into probabilities, so it has no per-element form: the array forms treat each run as one
+    // vector and the matrix forms work column by column (one column per instance)
+    // Its Jacobian is diag(a) - a a^T, so the backprop product is δ_i = a_i (g_i - Σ_j a_j g_j)
+    class Softmax extends Activation {
+        @Override public void apply(double[] in, int inOffset, double[] out, int outOffset, int length) {
+            double max = Double.NEGATIVE_INFINITY; // Shift by the max so exp() can't overflow
+            for (int i = 0; i < length; i++)
+                max = Math.max(max, in[inOffset + i]);
+            double sum = 0;
+            for (int i = 0; i < length; i++)
+                sum += out[outOffset + i] = Math.exp(in[inOffset + i] - max);
+            for (int i = 0; i < length; i++)
+                out[outOffset + i] /= sum;
+        }
+
+        @Override public void derivativeFromOutput(double[] a, int aOffset, double[] d, int dOffset, int length) {
+            double dot = 0;
+            for (int i = 0; i < length; i++)
+                dot += a[aOffset + i] * d[dOffset + i];
+            for (int i = 0; i < length; i++)
+                d[dOffset + i] = a[aOffset + i] * (d[dOffset + i] - dot);
+        }
+
+        @Override public void apply(Matrix z, Matrix a) {
+            for (int c = 0; c < z.C; c++) {
+                double max = Double.NEGATIVE_INFINITY;
+                for (int r = 0; r < z.R; r++)
+                    max = Math.max(max, z.get(r, c));
+                double sum = 0;
+                for (int r = 0; r < z.R; r++) {
+                    double e = Math.exp(z.get(r, c) - max);
+                    a.set(r, c, e);
+                    sum += e;
+                }
+                for (int r = 0; r < z.R; r++)
+                    a.set(r, c, a.get(r, c) / sum);
+            }
+        }
+
+        @Override public void multDerivativeFromOutput(Matrix d, Matrix a) {
+            for (int c = 0; c < a.C; c++) {
+                double dot = 0;
+                for (int r = 0; r < a.R; r++)
+                    dot += a.get(r, c) * d.get(r, c);
+                for (int r = 0; r < a.R; r++)
+                    d.set(r, c, a.get(r, c) * (d.get(r, c) - dot));
+            }
+        }
+    }
+
+    //===== OPTIMIZERS =====//
+    // Turns gradients into weight updates, keeping any per-parameter state in the layers so that steady-state training
+    // still doesn't allocate; setOptimizer() clears the state and has init() allocate it afresh, before any training
+    // thread can see it (Hogwild workers update it concurrently, so update() must never have to create it)
+    // trainEpoch() takes one step() per batch on its average gradients; trainInstance() updates one layer at a time,
+    // since it propagates each layer's target through the weights it has just updated
+    abstract class Optimizer {
+        // Allocates the optimizer's state in a layer whose state has just been cleared
+        void init(Layer layer) {}
+
+        abstract void update(Layer layer, Matrix weightGradient, Matrix biasGradient);
+
+        void step(Matrix[] weightGradients, Matrix[] biasGradients) {
+            for (int l = 0; l < layers.length; l++) {
+                update(layers[l], weightGradients[l], biasGradients[l]);
+            }
+        }
+
+        // trainInstance()'s update of layers[l] from its delta (target - output, so the gradients are -delta a^T and -delta)
+        // and its input a, which is sparseInput when that isn't null
+        void updateInstance(int l, Matrix delta, Matrix input, SparseVector sparseInput, InstanceBuffers buffers) {
+            Matrix weightGradient = buffers.weightGradient(l).fill(0);
+            if (sparseInput != null) {
+                weightGradient.addOuterProduct(-1, delta, sparseInput);
+            }
+            else {
+                weightGradient.addOuterProduct(-1, delta, input);
+            }
+            update(layers[l], weightGradient, buffers.biasGradient(l).copyFrom(delta).scaleInPlace(-1));
+        }
+    }
+
+    static final List<String> OPTIMIZERS = List.of("sgd", "momentum", "adam");
+
+    // One of OPTIMIZERS, with its default hyperparameters
+    Optimizer newOptimizer(String name) {
+        switch (name) {
+            case "sgd":      return new SGD();
+            case "momentum": return new Momentum();
+            case "adam":     return new Adam();
+            default: throw new IllegalArgumentException("Unknown optimizer: " + name);
+        }
+    }
+
+    // Plain gradient descent: w -= η ∇w
+    class SGD extends Optimizer {
+        @Override void update(Layer layer, Matrix weightGradient, Matrix biasGradient) {
+            layer.weights.axpy(-learningRate, weightGradient);
+            layer.biases.axpy(-learningRate, biasGradient);
+        }
+
+        // Adds the outer product straight into the weights instead of building the gradient first
+        @Override void updateInstance(int l, Matrix delta, Matrix input, SparseVector sparseInput, InstanceBuffers buffers) {
+            layers[l].biases.axpy(learningRate, delta);
+            if (sparseInput != null) {
+                layers[l].weights.addOuterProduct(learningRate, delta, sparseInput);
+            }
+            else {
+                layers[l].weights.addOuterProduct(learningRate, delta, input);
+            }
+        }
+    }
+
+    // Classical momentum: v = μ v + ∇w, w -= η v
+    class Momentum extends Optimizer {
+        final double mu;
+
+        Momentum() { this(0.9); }
+        Momentum(double mu) { this.mu = mu; }
+
+        @Override void init(Layer layer) {
+            layer.weightVelocity = new Matrix(layer.weights.R, layer.weights.C, precision);
+            layer.biasVelocity = new Matrix(layer.biases.R, layer.biases.C, precision);
+        }
+
+        @Override void update(Layer layer, Matrix weightGradient, Matrix biasGradient) {
+            layer.weights.axpy(-learningRate, layer.weightVelocity.scaleInPlace(mu).addInPlace(weightGradient));
+            layer.biases.axpy(-learningRate, layer.biasVelocity.scaleInPlace(mu).addInPlace(biasGradient));
+        }
+    }
+
+    // [Kingma & Ba, "Adam: A Method for Stochastic Optimization", 2015]
+    // m = β1 m + (1-β1) ∇w, v = β2 v + (1-β2) ∇w², w -= η m̂ / (√v̂ + ε), with m̂, v̂ the bias-corrected moments
+    class Adam extends Optimizer {
+        final double beta1, beta2, epsilon;
+
+        Adam() { this(0.9, 0.999, 1e-8); }
+        Adam(double beta1, double beta2, double epsilon) {
+            this.beta1 = beta1;
+            this.beta2 = beta2;
+            this.epsilon = epsilon;
+        }
+
+        @Override void init(Layer layer) {
+            layer.weightVelocity = new Matrix(layer.weights.R, layer.weights.C, precision);
+            layer.biasVelocity = new Matrix(layer.biases.R, layer.biases.C, precision);
+            layer.weightSquares = new Matrix(layer.weights.R, layer.weights.C, precision);
+            layer.biasSquares = new Matrix(layer.biases.R, layer.biases.C, precision);
+        }
+
+        @Override void update(Layer layer, Matrix weightGradient, Matrix biasGradient) {
+            int t = ++layer.steps; // Under Hogwild, racing workers can lose increments; t then lags a little
+            // Folding the bias corrections into the step size leaves ε unscaled, as in the paper's final algorithm
+            double stepSize = learningRate * Math.sqrt(1 - Math.pow(beta2, t)) / (1 - Math.pow(beta1, t));
+            update(layer.weights, weightGradient, layer.weightVelocity, layer.weightSquares, stepSize);
+            update(layer.biases, biasGradient, layer.biasVelocity, layer.biasSquares, stepSize);
+        }
+
+        private void update(Matrix w, Matrix g, Matrix m, Matrix v, double stepSize) {
+            for (int r = 0; r < w.R; r++) {
+                for (int c = 0; c < w.C; c++) {
+                    double gi = g.get(r, c);
+                    double mi = beta1 * m.get(r, c) + (1 - beta1) * gi;
+                    double vi = beta2 * v.get(r, c) + (1 - beta2) * gi * gi;
+                    m.set(r, c, mi);
+                    v.set(r, c, vi);
+                    w.set(r, c, w.get(r, c) - stepSize * mi / (Math.sqrt(vi) + epsilon));
+                }
+            }
+        }
     }
 
     interface CostFunction {
         public double f(Matrix prediction, Matrix actual);
-        public Matrix outputError(Matrix prediction, Matrix actual);
+        public Matrix outputErrorInto(Matrix prediction, Matrix actual, Matrix dst);
+
+        public default Matrix outputError(Matrix prediction, Matrix actual) {
+            return outputErrorInto(prediction, actual, new Matrix(prediction.R, prediction.C, prediction.precision()));
+        }
     }
 
     class MeanSquaredError implements CostFunction {
         @Override public double f(Matrix prediction, Matrix actual) {
-            Matrix delta = prediction.sub(actual);
-            return delta.transpose().mult(delta).get(0, 0); // dot prod
+            return prediction.squaredDistance(actual); // dot prod of (prediction - actual) with itself
         }
-        @Override public Matrix outputError(Matrix prediction, Matrix actual) {
-            return prediction.sub(actual); // (∇a.C) = (aL - y)
+        @Override public Matrix outputErrorInto(Matrix prediction, Matrix actual, Matrix dst) {
+            return dst.copyFrom(prediction).subInPlace(actual); // (∇a.C) = (aL - y)
         }
     }
 
@@ -311,39 +1228,47 @@ public class ANN {
             return -sum;
         }
 
-        @Override public Matrix outputError(Matrix prediction, Matrix actual) {
+        @Override public Matrix outputErrorInto(Matrix prediction, Matrix actual, Matrix dst) {
             // return prediction.sub(actual); // (∇a.C) = (aL - y)
 
             // -(actual / prediction) + ((1 - actual) / (1 - prediction))
-            return actual.zipWith(prediction, a -> p -> -(a/p) + ((1-a)/(1-p)))
-                .map(x -> Double.isNaN(x) ? 0 : x);
+            for (int r = 0; r < prediction.R; r++) {
+                double a = actual.get(r, 0);
+                double p = prediction.get(r, 0);
+                double x = -(a/p) + ((1-a)/(1-p));
+                dst.set(r, 0, Double.isNaN(x) ? 0 : x);
+            }
+            return dst;
         }
     }
 
     //==================================================
 
-    private Matrix calcGradient(Matrix layer, Matrix err, Activation act) {
-        Matrix gradient = layer.map(act::df);
+    // gradient = σ′(layer) ⊙ err * learningRate
+    private Matrix calcGradientInto(Matrix layer, Matrix err, Activation act, Matrix gradient) {
+        gradient.copyFrom(err);
         // Matrix gradient = new CategoricalCrossEntropy().outputError(layer, err);
-        gradient = gradient.hadamard(err);
-        return gradient.mult(learningRate);
+        act.multDerivativeFromOutput(gradient, layer); // `layer` already holds the activations σ(z)
+        return gradient.scaleInPlace(learningRate);
+    }
+
+    // `input` itself if it already has the network's precision, otherwise a converted copy in `buffer`
+    private Matrix toNetworkPrecision(Matrix input, Matrix buffer) {
+        return input.precision() == precision ? input : buffer.copyFrom(input);
     }
 
-    private Matrix calcDelta(Matrix gradient, Matrix layer) {
-        return gradient.mult(layer.transpose());
+    // Generic function to calculate one layer into `result`
+    private static Matrix calcLayerInto(Matrix weights, Matrix bias, Matrix input, Activation act, Matrix result) {
+        weights.multInto(input, result);
+        result.addInPlace(bias);
+        act.apply(result, result);
+        return result;
     }
 
-    // Generic function to calculate one layer
-    private Matrix calcLayer(Matrix weights, Matrix bias, Matrix input, Activation act) {
-        // System.out.println("Calculating...");
-        Matrix result = weights.mult(input);
-        // System.out.println(result);
-        result = result.add(bias);
-        // System.out.println(result);
-        result = result.map(act::f);
-        // System.out.println(act);
-        // System.out.println(result);
-        // System.out.println("------>");
+    private static Matrix calcLayerInto(Matrix weights, Matrix bias, SparseVector input, Activation act, Matrix result) {
+        weights.multInto(input, result);
+        result.addInPlace(bias);
+        act.apply(result, result);
         return result;
     }
 
@@ -359,23 +1284,45 @@ public class ANN {
 
     public double trainBatch() {
         double avgCost = 0;
-        TrainingData[] batch = getRandomBatch();
+        TrainingData[] batch = getRandomBatch(reusableBatch());
         for(int i = 0; i < batch.length; i++) {
-            avgCost += trainInstance(batch[i].inputData(), batch[i].outputData());
+            avgCost += trainInstance(batch[i], ensureInstanceBuffers());
         }
         return avgCost / batch.length;
     }
 
     // Only trains a single instance
     public double trainInstance(Matrix input, Matrix target) {
+        return trainInstance(input, null, target, ensureInstanceBuffers());
+    }
+
+    public double trainInstance(SparseVector input, Matrix target) {
+        return trainInstance(null, input, target, ensureInstanceBuffers());
+    }
+
+    private double trainInstance(TrainingData instance, InstanceBuffers buffers) {
+        SparseVector sparse = sparseInput(instance);
+        return sparse != null
+            ? trainInstance(null, sparse, instance.outputData(), buffers)
+            : trainInstance(instance.inputData(), null, instance.outputData(), buffers);
+    }
+
+    // Exactly one of denseInput and sparseInput is non-null
+    private double trainInstance(Matrix denseInput, SparseVector sparseInput, Matrix target, InstanceBuffers buffers) {
         //========== FEED FORWARD ==========//
-        Matrix lays[] = new Matrix[layers.length + 1];
+        Matrix lays[] = buffers.layers;
+        Matrix input = denseInput == null ? null : toNetworkPrecision(denseInput, buffers.input);
         lays[0] = input;
 
         // From first hidden layer to output layer
         // Calculate the `a` value of each layer
-        for (int j = 1; j < lays.length; j++) {
-            lays[j] = calcLayer(layers[j-1].weights, layers[j-1].biases, input, layers[j-1].activation);
+        int j = 1;
+        if (sparseInput != null) {
+            input = calcLayerInto(layers[0].weights, layers[0].biases, sparseInput, layers[0].activation, lays[1]);
+            j++;
+        }
+        for (; j < lays.length; j++) {
+            calcLayerInto(layers[j-1].weights, layers[j-1].biases, input, layers[j-1].activation, lays[j]);
             input = lays[j];
         }
 
@@ -388,24 +1335,152 @@ public class ANN {
         Matrix currTarget = target;
         for (int n = lays.length-1; n > 0; n--) {
 
-            Matrix errors = currTarget.sub(lays[n]);
-            Matrix gradients = calcGradient(lays[n], errors, new ReLU());
-            Matrix deltas = calcDelta(gradients, lays[n - 1]);
+            Matrix errors = buffers.errors[n].copyFrom(currTarget).subInPlace(lays[n]);
+            Matrix gradients = calcGradientInto(lays[n], errors, instanceActivation, buffers.gradients[n]);
 
-            //Update weights / biases
-            layers[n-1].biases = layers[n-1].biases.add(gradients.mult(learningRate));
+            //Update weights / biases (for SGD, weights += (gradients * lays[n-1]^T) * learningRate)
+            optimizer.updateInstance(n-1, gradients, lays[n - 1], n == 1 ? sparseInput : null, buffers);
 
-            layers[n-1].weights = layers[n-1].weights.add(deltas.mult(learningRate));
-
-            // Calculate and set target for previous (next) layer
-            Matrix previousError = layers[n-1].weights.transpose().mult(errors);
-            currTarget = previousError.add(lays[n - 1]);
+            // Calculate and set target for previous (next) layer (the input layer has none)
+            if (n == 1) break;
+            currTarget = layers[n-1].weights.transposeMultInto(errors, buffers.targets[n - 1])
+                .addInPlace(lays[n - 1]);
         }
 
         return cost;
     }
 
+    private InstanceBuffers ensureInstanceBuffers() {
+        if (instanceBuffers == null) {
+            instanceBuffers = new InstanceBuffers();
+        }
+        return instanceBuffers;
+    }
+
+    // trainInstance()'s working vectors[layer] (layer 0 is the input layer)
+    class InstanceBuffers {
+        final Matrix input; // FLOAT only
+        final Matrix[] layers;
+        final Matrix[] errors;
+        final Matrix[] gradients;
+        final Matrix[] targets;
+        Matrix[] weightGradients, biasGradients;
+
+        InstanceBuffers() {
+            int numLayers = ANN.this.layers.length + 1; // Include input layer
+            layers = new Matrix[numLayers];
+            errors = new Matrix[numLayers];
+            gradients = new Matrix[numLayers];
+            targets = new Matrix[numLayers];
+
+            for (int n = 0; n < numLayers; n++) {
+                int neurons = n == 0 ? ANN.this.layers[0].weights.C : ANN.this.layers[n-1].weights.R;
+                layers[n] = new Matrix(neurons, 1, precision);
+                errors[n] = new Matrix(neurons, 1, precision);
+                gradients[n] = new Matrix(neurons, 1, precision);
+                targets[n] = new Matrix(neurons, 1, precision);
+            }
+            input = precision != Matrix.Precision.DOUBLE ? new Matrix(ANN.this.layers[0].weights.C, 1, precision) : null;
+        }
+
+        // The default Optimizer.updateInstance()'s gradients for layers[l], allocated the first time they're needed (never for SGD)
+        Matrix weightGradient(int l) {
+            if (weightGradients == null) {
+                weightGradients = new Matrix[ANN.this.layers.length];
+                biasGradients = new Matrix[ANN.this.layers.length];
+            }
+            if (weightGradients[l] == null) {
+                Layer layer = ANN.this.layers[l];
+                weightGradients[l] = new Matrix(layer.weights.R, layer.weights.C, precision);
+                biasGradients[l] = new Matrix(layer.biases.R, layer.biases.C, precision);
+            }
+            return weightGradients[l];
+        }
+
+        Matrix biasGradient(int l) {
+            weightGradient(l);
+            return biasGradients[l];
+        }
+    }
+
+    //===== HOGWILD =====//
+    // Lock-free asynchronous SGD [Niu et al., "Hogwild!", 2011]: `workers` threads each run trainInstance() on their own
+    // random samples and write their updates straight into the shared weights, with no locks
+    // Sparse (e.g. one-hot) inputs suit it best, since each update then only touches a few columns of the first layer
+    // Returns the average cost over the `samples` instances, which are split evenly across the threads
+    // Not deterministic with more than one worker: the result depends on how the threads' updates interleave
+    // (Momentum's and Adam's state is shared by the threads just like the weights)
+    public double trainHogwild(int samples) {
+        ensureHogwildWorkers();
+        int threads = hogwildWorkers.length;
+        for (int t = 0; t < threads; t++) {
+            hogwildWorkers[t].samples = (int)((long)(t + 1) * samples / threads - (long)t * samples / threads);
+        }
+
+        double cost = 0;
+        if (threads == 1) {
+            cost = hogwildWorkers[0].call();
+        }
+        else {
+            try {
+                for (Future<Double> result : workerPool.invokeAll(Arrays.asList(hogwildWorkers))) {
+                    cost += result.get();
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException("Hogwild training failed", e);
+            }
+        }
+        return cost / samples;
+    }
+
+    // Per-thread sample streams are split off gen, so the threads never contend on it
+    private void ensureHogwildWorkers() {
+        if (hogwildWorkers != null && hogwildWorkers.length == workers) return;
+
+        SplittableRandom streams = gen.split();
+        hogwildWorkers = new HogwildWorker[workers];
+        for (int t = 0; t < workers; t++) {
+            hogwildWorkers[t] = new HogwildWorker(streams.split());
+        }
+    }
+
+    // One Hogwild thread: its own instance buffers and its own stream of random training samples
+    private class HogwildWorker implements Callable<Double> {
+        final InstanceBuffers buffers = new InstanceBuffers();
+        final SplittableRandom random;
+        int samples;
+
+        HogwildWorker(SplittableRandom random) {
+            this.random = random;
+        }
+
+        // Total cost over this worker's samples
+        @Override
+        public Double call() {
+            double cost = 0;
+            for (int i = 0; i < samples; i++) {
+                cost += trainInstance(training[random.nextInt(training.length)], buffers);
+            }
+            return cost;
+        }
+    }
+
     void setVerbose(boolean verbose) {
         this.verbose = verbose;
     }
+
+    // Momentum and Adam keep their state in the same layer fields, so a new optimizer always starts from fresh state
+    // Call it before training starts, never while Hogwild workers are running
+    void setOptimizer(Optimizer optimizer) {
+        this.optimizer = optimizer;
+        resetOptimizerState();
+    }
+
+    void resetOptimizerState() {
+        for (Layer layer : layers) {
+            layer.weightVelocity = layer.biasVelocity = layer.weightSquares = layer.biasSquares = null;
+            layer.steps = 0;
+            optimizer.init(layer);
+        }
+    }
 }
\ No newline at end of file
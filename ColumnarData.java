@@ -0,0 +1,37 @@
+// A training set encoded once for decision tree scoring, column-major:
+//   features[f][row] is attribute f's enum value (TrainingData.inputEnums()), labels[row] is its class (output row 1)
+// Reading a row allocates nothing, unlike inputEnums() (a new int[] per call) and outputData() (a Matrix)
+// Every value must fit in a byte; CancerData's largest attribute has 13 values
+
+class ColumnarData {
+    final TrainingData[] source; // The instances it was encoded from, row for row
+    final byte[][] features;
+    final byte[] labels;
+
+    ColumnarData(TrainingData[] instances) {
+        source = instances;
+        int featureCount = instances.length > 0 ? instances[0].inputEnums().length : 0;
+        features = new byte[featureCount][instances.length];
+        labels = new byte[instances.length];
+
+        for (int row = 0; row < instances.length; row++) {
+            int[] enums = instances[row].inputEnums();
+            if (enums.length != featureCount)
+                throw new IllegalArgumentException("Row " + row + " has " + enums.length + " features, expected " + featureCount);
+            for (int f = 0; f < featureCount; f++) {
+                features[f][row] = toByte(enums[f]);
+            }
+            labels[row] = toByte((int)instances[row].outputData().get(1, 0));
+        }
+    }
+
+    int rows() {
+        return labels.length;
+    }
+
+    private static byte toByte(int value) {
+        if (value < Byte.MIN_VALUE || value > Byte.MAX_VALUE)
+            throw new IllegalArgumentException("Value " + value + " doesn't fit in a byte");
+        return (byte)value;
+    }
+}
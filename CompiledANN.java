@@ -0,0 +1,286 @@
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.util.List;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+// A predictor generated for one trained ANN: its topology, weights and activations are written out as Java source,
+// compiled in memory with javac (javax.tools) and loaded as a hidden class, so the JIT sees constant dimensions,
+// constant weights and inlined activations instead of generic Matrix objects and Activation calls
+// Networks with at most UNROLL_LIMIT multiply-adds are fully unrolled into straight-line code over locals with the weights
+// as literals (zero weights dropped); each one is ~8 bytes of bytecode, and HotSpot won't JIT a method over 8000 bytes
+// (HugeMethodLimit), so bigger ones get loops with constant bounds over final weight arrays instead
+// (The ClassFile API could emit the bytecode directly, but this JDK doesn't have it; generating source needs a JDK at runtime)
+// A snapshot, so later training doesn't reach it; reuses its buffers, so use one per thread
+
+public class CompiledANN {
+    static final int UNROLL_LIMIT = 768;
+
+    final int inputs, outputs;
+    final boolean unrolled;
+    final String source; // The generated class, for inspection
+    private final Kernel kernel;
+    private final double[] input, output;
+
+    // What the generated class implements; output.length == outputs
+    interface Kernel {
+        void predict(double[] input, double[] output);
+    }
+
+    CompiledANN(ANN ann) {
+        int numLayers = ann.layers.length;
+        inputs = ann.layers[0].weights.C;
+        outputs = ann.layers[numLayers - 1].weights.R;
+        input = new double[inputs];
+        output = new double[outputs];
+
+        double[][] weights = new double[numLayers][];
+        double[][] biases = new double[numLayers][];
+        long multiplyAdds = 0;
+        for (int l = 0; l < numLayers; l++) {
+            Matrix W = ann.layers[l].weights, b = ann.layers[l].biases;
+            weights[l] = new double[W.R * W.C];
+            biases[l] = new double[W.R];
+            for (int r = 0; r < W.R; r++) {
+                for (int c = 0; c < W.C; c++) weights[l][r * W.C + c] = W.get(r, c);
+                biases[l][r] = b.get(r, 0);
+            }
+            multiplyAdds += (long)W.R * W.C;
+        }
+        unrolled = multiplyAdds <= UNROLL_LIMIT;
+
+        ANN.Activation[] activations = new ANN.Activation[numLayers];
+        for (int l = 0; l < numLayers; l++) activations[l] = ann.layers[l].activation;
+        source = unrolled ? unrolledSource(weights, biases, activations) : loopedSource(weights, biases, activations);
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(compile(source), true);
+            kernel = (Kernel)lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class, double[][].class, double[][].class))
+                .invoke(weights, biases);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to load the generated predictor", e);
+        }
+    }
+
+    //===== INFERENCE =====//
+    // Same contract as ANN.predict(TrainingData): a column vector copy of the output layer's activations
+    Matrix predict(TrainingData instance) {
+        readInput(instance);
+        kernel.predict(input, output);
+        return Matrix.columnVector(output.clone());
+    }
+
+    // Index of the largest output (the first, on ties, like Matrix.argMax), without allocating
+    int predictClass(TrainingData instance) {
+        readInput(instance);
+        kernel.predict(input, output);
+        int best = 0;
+        for (int k = 1; k < outputs; k++) {
+            if (output[k] > output[best]) best = k;
+        }
+        return best;
+    }
+
+    // input.length == inputs, output.length == outputs
+    void predict(double[] input, double[] output) {
+        kernel.predict(input, output);
+    }
+
+    // The dense input features, in whichever encoding the first layer takes (like ANN.predict)
+    private void readInput(TrainingData instance) {
+        SparseVector sparse = instance.sparseInputData();
+        if (sparse != null && sparse.size == inputs) {
+            java.util.Arrays.fill(input, 0);
+            for (int k = 0; k < sparse.nnz(); k++) input[sparse.index(k)] = sparse.value(k);
+        }
+        else {
+            Matrix dense = instance.inputData();
+            for (int j = 0; j < inputs; j++) input[j] = dense.get(j, 0);
+        }
+    }
+
+    // Σ w[wi + j] * a[j] for j < n, for the looped predictors
+    static double dot(double[] w, int wi, double[] a, int n) {
+        if (Matrix.SIMD) return VectorKernels.dot(w, wi, a, 0, n);
+        double sum = 0;
+        for (int j = 0; j < n; j++)
+            sum += w[wi + j] * a[j];
+        return sum;
+    }
+
+    //===== CODE GENERATION =====//
+    static final String CLASS_NAME = "GeneratedANN";
+
+    // Straight-line code: layer l's activations are the locals a<l>_<i> (a0 being the input)
+    private static String unrolledSource(double[][] weights, double[][] biases, ANN.Activation[] activations) {
+        StringBuilder src = header();
+        src.append("    public ").append(CLASS_NAME).append("(double[][] weights, double[][] biases) {}\n\n");
+        src.append("    @Override public void predict(double[] in, double[] out) {\n");
+        int width = weights[0].length / biases[0].length;
+        for (int j = 0; j < width; j++) {
+            src.append("        double a0_").append(j).append(" = in[").append(j).append("];\n");
+        }
+
+        for (int l = 0; l < weights.length; l++) {
+            int neurons = biases[l].length;
+            int vl = l + 1;
+            src.append("\n        // Layer ").append(vl).append(": ").append(width).append(" -> ").append(neurons)
+               .append(", ").append(activations[l].getClass().getSimpleName()).append('\n');
+            for (int i = 0; i < neurons; i++) {
+                src.append("        double z").append(vl).append('_').append(i).append(" = (");
+                boolean first = true;
+                for (int j = 0; j < width; j++) {
+                    double w = weights[l][i * width + j];
+                    if (w == 0) continue;
+                    if (!first) src.append(" + ");
+                    src.append(literal(w)).append(" * a").append(l).append('_').append(j);
+                    first = false;
+                }
+                if (first) src.append("0.0");
+                src.append(") + ").append(literal(biases[l][i])).append(";\n");
+            }
+
+            if (activations[l] instanceof ANN.Softmax) {
+                // Shift by the max so exp() can't overflow, then normalise; summed in order like ANN.Softmax
+                src.append("        double max").append(vl).append(" = z").append(vl).append("_0;\n");
+                for (int i = 1; i < neurons; i++) {
+                    src.append("        max").append(vl).append(" = Math.max(max").append(vl).append(", z").append(vl).append('_').append(i).append(");\n");
+                }
+                src.append("        double sum").append(vl).append(" = 0;\n");
+                for (int i = 0; i < neurons; i++) {
+                    src.append("        double e").append(vl).append('_').append(i).append(" = Math.exp(z").append(vl).append('_').append(i)
+                       .append(" - max").append(vl).append(");\n");
+                    src.append("        sum").append(vl).append(" += e").append(vl).append('_').append(i).append(";\n");
+                }
+                for (int i = 0; i < neurons; i++) {
+                    src.append("        double a").append(vl).append('_').append(i).append(" = e").append(vl).append('_').append(i)
+                       .append(" / sum").append(vl).append(";\n");
+                }
+            }
+            else {
+                for (int i = 0; i < neurons; i++) {
+                    src.append("        double a").append(vl).append('_').append(i).append(" = ")
+                       .append(activation(activations[l], "z" + vl + "_" + i)).append(";\n");
+                }
+            }
+            width = neurons;
+        }
+
+        src.append('\n');
+        for (int i = 0; i < width; i++) {
+            src.append("        out[").append(i).append("] = a").append(weights.length).append('_').append(i).append(";\n");
+        }
+        return src.append("    }\n}\n").toString();
+    }
+
+    // Constant-bound loops: layer l's weights/biases are the arrays w<l>/b<l>, its activations the buffer a<l> (out for the last)
+    private static String loopedSource(double[][] weights, double[][] biases, ANN.Activation[] activations) {
+        int numLayers = weights.length;
+        StringBuilder src = header();
+        for (int l = 0; l < numLayers; l++) {
+            src.append("    private final double[] w").append(l + 1).append(", b").append(l + 1)
+               .append(l < numLayers - 1 ? ", a" + (l + 1) : "").append(";\n");
+        }
+        src.append("\n    public ").append(CLASS_NAME).append("(double[][] weights, double[][] biases) {\n");
+        for (int l = 0; l < numLayers; l++) {
+            int vl = l + 1;
+            src.append("        w").append(vl).append(" = weights[").append(l).append("];\n");
+            src.append("        b").append(vl).append(" = biases[").append(l).append("];\n");
+            if (l < numLayers - 1) src.append("        a").append(vl).append(" = new double[").append(biases[l].length).append("];\n");
+        }
+        src.append("    }\n\n");
+
+        src.append("    @Override public void predict(double[] in, double[] out) {\n");
+        int width = weights[0].length / biases[0].length;
+        String previous = "in";
+        for (int l = 0; l < numLayers; l++) {
+            int neurons = biases[l].length;
+            int vl = l + 1;
+            String dst = l < numLayers - 1 ? "a" + vl : "out";
+            boolean softmax = activations[l] instanceof ANN.Softmax;
+            src.append("        // Layer ").append(vl).append(": ").append(width).append(" -> ").append(neurons)
+               .append(", ").append(activations[l].getClass().getSimpleName()).append('\n');
+            src.append("        for (int i = 0; i < ").append(neurons).append("; i++) {\n");
+            String z = "CompiledANN.dot(w" + vl + ", i * " + width + ", " + previous + ", " + width + ") + b" + vl + "[i]";
+            src.append("            ").append(dst).append("[i] = ").append(softmax ? z : activation(activations[l], "(" + z + ")")).append(";\n");
+            src.append("        }\n");
+            if (softmax) {
+                src.append("        {\n");
+                src.append("            double max = Double.NEGATIVE_INFINITY;\n");
+                src.append("            for (int i = 0; i < ").append(neurons).append("; i++) max = Math.max(max, ").append(dst).append("[i]);\n");
+                src.append("            double sum = 0;\n");
+                src.append("            for (int i = 0; i < ").append(neurons).append("; i++) sum += ").append(dst).append("[i] = Math.exp(")
+                   .append(dst).append("[i] - max);\n");
+                src.append("            for (int i = 0; i < ").append(neurons).append("; i++) ").append(dst).append("[i] /= sum;\n");
+                src.append("        }\n");
+            }
+            previous = dst;
+            width = neurons;
+        }
+        return src.append("    }\n}\n").toString();
+    }
+
+    private static StringBuilder header() {
+        return new StringBuilder("public final class ").append(CLASS_NAME).append(" implements CompiledANN.Kernel {\n");
+    }
+
+    // σ(x) as a Java expression, the same formula as the Activation's f; x is evaluated once
+    private static String activation(ANN.Activation activation, String x) {
+        if (activation instanceof ANN.Identity) return x;
+        if (activation instanceof ANN.ReLU) return "Math.max(0, " + x + ")";
+        if (activation instanceof ANN.LeakyReLU) {
+            return "CompiledANN.leaky(" + x + ", " + literal(((ANN.LeakyReLU)activation).alpha) + ")";
+        }
+        if (activation instanceof ANN.Sigmoid) return "1 / (1 + Math.exp(-" + x + "))";
+        if (activation instanceof ANN.Tanh) return "Math.tanh(" + x + ")";
+        throw new IllegalArgumentException("Can't compile activation " + activation.getClass().getName());
+    }
+
+    // Used by the generated LeakyReLU code, so its input is only evaluated once
+    static double leaky(double x, double alpha) {
+        return x > 0 ? x : alpha * x;
+    }
+
+    // A Java expression for exactly this double
+    private static String literal(double x) {
+        if (Double.isNaN(x)) return "Double.NaN";
+        if (Double.isInfinite(x)) return x > 0 ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+        return x < 0 ? "(" + x + ")" : Double.toString(x);
+    }
+
+    // javac in memory, against the running class path (for CompiledANN.Kernel); returns the class file
+    private static byte[] compile(String source) {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null)
+            throw new IllegalStateException("Compiling a predictor needs a JDK; this runtime has no system Java compiler");
+
+        JavaFileObject sourceFile = new SimpleJavaFileObject(URI.create("string:///" + CLASS_NAME + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override public CharSequence getCharContent(boolean ignoreEncodingErrors) { return source; }
+        };
+        ByteArrayOutputStream classFile = new ByteArrayOutputStream();
+        JavaFileManager files = new ForwardingJavaFileManager<JavaFileManager>(javac.getStandardFileManager(null, null, null)) {
+            @Override public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("bytes:///" + className + ".class"), kind) {
+                    @Override public OutputStream openOutputStream() { return classFile; }
+                };
+            }
+        };
+
+        StringWriter errors = new StringWriter();
+        List<String> options = List.of("-classpath", System.getProperty("java.class.path"), "-g:none", "-nowarn");
+        if (!javac.getTask(errors, files, null, options, null, List.of(sourceFile)).call())
+            throw new IllegalStateException("Generated predictor failed to compile:\n" + errors);
+        return classFile.toByteArray();
+    }
+}
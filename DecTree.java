@@ -1,5 +1,14 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.random.RandomGenerator;
 
 public class DecTree {
     static final int maxDepth = 3;
@@ -10,10 +19,10 @@ public class DecTree {
     int totalDepth = 0;
 
     // Generate a random decision tree
-    DecTree() {
+    DecTree(RandomGenerator gen) {
         // Pick random root
-        DecNode newRoot = DecNode.random();
-        newRoot.fillWithRandom(maxDepth);
+        DecNode newRoot = DecNode.random(gen);
+        newRoot.fillWithRandom(maxDepth, gen);
         this.root = newRoot;
     }
 
@@ -27,41 +36,43 @@ public class DecTree {
         }
     }
 
-    // Evaluate the tree on a set of instances
-    void evaluate(TrainingData[] instances) {
-        if (instances.length == 0) return;
+    // A loaded tree; draws no random numbers
+    private DecTree(Node root, double value) {
+        this.root = root;
+        this.value = value;
+    }
 
-        value = 0;
-        for (TrainingData instance : instances) {
-            int result = root.decide(instance);
+    // Evaluate the tree on a set of rows of the (columnar) training data; allocates nothing
+    void evaluate(ColumnarData data, int[] rows) {
+        if (rows.length == 0) return;
 
-            // If correct
-            if (result == (int)instance.outputData().get(1, 0)) {
-                // System.out.print(Main.BLUE + result + Main.RESET);
-                value += 1.0;
+        int correct = 0;
+        for (int row : rows) {
+            if (root.decide(data.features, row) == data.labels[row]) {
+                correct++;
             }
         }
-        value /= instances.length;
+        value = (double)correct / rows.length;
     }
 
     int predict(TrainingData instance) {
         return root.decide(instance);
     }
 
-    public void mutate() {
+    public void mutate(RandomGenerator gen) {
         // { subtree removal, subtree addition }
 
-        if (Utils.gen.nextDouble() > 0.3) {
+        if (gen.nextDouble() > 0.3) {
             //===== REMOVE A SUBTREE =====//
 
             if (root instanceof LeafNode) {
                 // All we can do is perturb the value
-                if (Utils.gen.nextDouble() < chanceToPerturbLeaf) root = new LeafNode();
+                if (gen.nextDouble() < chanceToPerturbLeaf) root = new LeafNode(gen);
             }
             else {
 
                 // Pick random depth that isn't root
-                int removeDepth = Utils.gen.nextInt(maxDepth-1)+1;
+                int removeDepth = gen.nextInt(maxDepth-1)+1;
 
                 // Remove a subtree at the given depth
                 List<Node> parents = getNodesAtDepth((DecNode)root, removeDepth);
@@ -70,7 +81,7 @@ public class DecTree {
                     if (parents.get(n) instanceof DecNode) {
 
                         if (((DecNode)parents.get(n)).children.size() > 0) {
-                            int removeIndex = (int)(Utils.gen.nextInt(((DecNode)parents.get(n)).children.size()));
+                            int removeIndex = (int)(gen.nextInt(((DecNode)parents.get(n)).children.size()));
                             ((DecNode)parents.get(n)).children.remove(removeIndex);
                         }
 
@@ -78,8 +89,8 @@ public class DecTree {
                     else if (parents.get(n) instanceof LeafNode)
                     {
                         // Perturb leaf
-                        if (Utils.gen.nextDouble() < chanceToPerturbLeaf) {
-                            parents.set(n, new LeafNode());
+                        if (gen.nextDouble() < chanceToPerturbLeaf) {
+                            parents.set(n, new LeafNode(gen));
                         }
                     }
                 }
@@ -90,14 +101,14 @@ public class DecTree {
         //===== ADD A SUBTREE =====//
         // Always try
         if (this.root instanceof DecNode) {
-            ((DecNode)this.root).fillWithRandom(maxDepth);
+            ((DecNode)this.root).fillWithRandom(maxDepth, gen);
         }
 
-        prune();
+        prune(gen);
     }
 
     // Remove all nodes with a depth greater than maxDepth
-    public void prune() {
+    public void prune(RandomGenerator gen) {
         if (root instanceof LeafNode) return;
 
         List<Node> hedge = getNodesAtDepth((DecNode)root, maxDepth-1);
@@ -111,7 +122,7 @@ public class DecTree {
                     // Past this point all nodes must be leaves
                     if (((DecNode)node).children.get(i) instanceof DecNode)
                     {
-                        ((DecNode)node).children.set(i, new LeafNode());
+                        ((DecNode)node).children.set(i, new LeafNode(gen));
                     }
                 }
             }
@@ -136,10 +147,10 @@ public class DecTree {
     }
 
     // Swap only direct children of the root
-    public void swapSubtree(DecTree other) {
+    public void swapSubtree(DecTree other, RandomGenerator gen) {
         if (this.root instanceof DecTree) {
             // Pick random child of this.root
-            int thisIndex = Utils.gen.nextInt(((DecNode)this.root).children.size());
+            int thisIndex = gen.nextInt(((DecNode)this.root).children.size());
             Node thisChild = ((DecNode)this.root).getChild(thisIndex);
 
             // Copy
@@ -147,7 +158,7 @@ public class DecTree {
             else if (thisChild instanceof DecNode) thisChild = new DecNode((DecNode)thisChild);
 
             // Pick random child of other.root
-            int otherIndex = Utils.gen.nextInt(((DecNode)other.root).children.size());
+            int otherIndex = gen.nextInt(((DecNode)other.root).children.size());
             Node otherChild = ((DecNode)other.root).getChild(otherIndex);
             System.out.println(Main.GREEN + "Swapping " + thisIndex + " with " + otherIndex + Main.RESET);
 
@@ -170,9 +181,103 @@ public class DecTree {
         return "[" + value + "]" + root.toString(0);
     }
 
+    //========== CHECKPOINTS ==========//
+    // File layout (little-endian):
+    //   int magic, int version, double value, int nodeCount, int 0,
+    //   then every node in pre-order as two bytes: (decFactor, childCount) for a DecNode, (LEAF_TAG, result) for a LeafNode
+    // Readers reject versions newer than CHECKPOINT_VERSION; bump it whenever the layout changes
+    static final int CHECKPOINT_MAGIC = 0x44544350; // "DTCP"
+    static final int CHECKPOINT_VERSION = 1;
+    static final int CHECKPOINT_HEADER = 24;
+    static final byte LEAF_TAG = -1;
+
+    void save(Path path) throws IOException {
+        int nodes = countNodes(root);
+        ByteBuffer buffer = ByteBuffer.allocate(CHECKPOINT_HEADER + 2 * nodes).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(CHECKPOINT_MAGIC).putInt(CHECKPOINT_VERSION).putDouble(value).putInt(nodes).putInt(0);
+        writeNode(root, buffer);
+        buffer.flip();
+
+        // Written next to the target and renamed over it, so a failed save never leaves a truncated checkpoint behind
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) channel.write(buffer);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Parsed straight out of a read-only mapping of the file
+    static DecTree load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < CHECKPOINT_HEADER)
+                throw new IOException("Not a decision tree checkpoint: " + path);
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+
+            if (buffer.getInt() != CHECKPOINT_MAGIC)
+                throw new IOException("Not a decision tree checkpoint: " + path);
+            int version = buffer.getInt();
+            if (version < 1 || version > CHECKPOINT_VERSION)
+                throw new IOException("Unsupported checkpoint version " + version + " in " + path);
+            double value = buffer.getDouble();
+            int nodes = buffer.getInt();
+            buffer.getInt();
+            if (nodes < 1 || buffer.remaining() < 2L * nodes)
+                throw new IOException("Truncated checkpoint: " + path);
+
+            try {
+                return new DecTree(readNode(buffer), value);
+            }
+            catch (java.nio.BufferUnderflowException e) {
+                throw new IOException("Truncated checkpoint: " + path);
+            }
+            catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage() + " in " + path);
+            }
+        }
+    }
+
+    private static int countNodes(Node node) {
+        int count = 1;
+        if (node instanceof DecNode) {
+            for (Node child : ((DecNode)node).children) count += countNodes(child);
+        }
+        return count;
+    }
+
+    private static void writeNode(Node node, ByteBuffer buffer) {
+        if (node instanceof LeafNode) {
+            buffer.put(LEAF_TAG).put((byte)((LeafNode)node).result);
+        }
+        else {
+            DecNode decNode = (DecNode)node;
+            buffer.put((byte)decNode.decFactor).put((byte)decNode.children.size());
+            for (Node child : decNode.children) writeNode(child, buffer);
+        }
+    }
+
+    private static Node readNode(ByteBuffer buffer) {
+        byte tag = buffer.get();
+        int arg = buffer.get() & 0xFF;
+        if (tag == LEAF_TAG) {
+            if (arg > 1) throw new IllegalArgumentException("Bad leaf result " + arg);
+            return new LeafNode(arg);
+        }
+        if (tag < 0 || tag >= CancerData.labels.length)
+            throw new IllegalArgumentException("Bad decision factor " + tag);
+        // One child per value of the attribute, as DecNode.updateDecFactor() builds them (categories[0] is the class)
+        if (arg != CancerData.categories[tag + 1].length)
+            throw new IllegalArgumentException("Bad child count " + arg + " for " + CancerData.labels[tag]);
+
+        List<Node> children = new ArrayList<>(arg);
+        for (int i = 0; i < arg; i++) children.add(readNode(buffer));
+        return new DecNode(tag, children);
+    }
+
     //========== NODES ==========//
     static interface Node {
         public int decide(TrainingData data);
+        public int decide(byte[][] features, int row); // Row `row` of ColumnarData.features
         public String toString(int indent);
     }
 
@@ -180,8 +285,8 @@ public class DecTree {
     static class LeafNode implements Node {
         final int result; // {0, 1}
 
-        LeafNode () {
-            this.result = Utils.gen.nextInt(2);
+        LeafNode (RandomGenerator gen) {
+            this.result = gen.nextInt(2);
         }
 
         LeafNode (int result) {
@@ -197,6 +302,11 @@ public class DecTree {
             return result;
         }
 
+        @Override
+        public int decide(byte[][] features, int row) {
+            return result;
+        }
+
         public String toString(int indent) {
             return Main.GREEN + result + Main.RESET;
         }
@@ -206,12 +316,12 @@ public class DecTree {
         List<Node> children;
         int decFactor; // The variable upon which we decide
 
-        DecNode(int decFactor) {
+        DecNode(int decFactor, RandomGenerator gen) {
             this.children = new ArrayList<>();
-            updateDecFactor(decFactor);
+            updateDecFactor(decFactor, gen);
         }
 
-        void updateDecFactor(int decFactor) {
+        void updateDecFactor(int decFactor, RandomGenerator gen) {
             this.decFactor = decFactor;
             int numChildren = 0;
 
@@ -234,11 +344,17 @@ public class DecTree {
             else if (this.children.size() < numChildren)
             {
                 for (int i = this.children.size(); i < numChildren; i++) {
-                    this.children.add(new LeafNode());
+                    this.children.add(new LeafNode(gen));
                 }
             }
         }
 
+        // Exactly these children, for loading; draws no random numbers
+        DecNode(int decFactor, List<Node> children) {
+            this.decFactor = decFactor;
+            this.children = children;
+        }
+
         // Copy constructor
         DecNode(DecNode other) {
             this.decFactor = other.decFactor;
@@ -256,8 +372,8 @@ public class DecTree {
             }
         }
 
-        static DecNode random() {
-            return new DecNode((Utils.gen.nextInt(9)));
+        static DecNode random(RandomGenerator gen) {
+            return new DecNode(gen.nextInt(9), gen);
         }
 
         Node getChild(int index) {
@@ -271,18 +387,18 @@ public class DecTree {
             return true;
         }
 
-        void fillWithRandom(int depth) {
+        void fillWithRandom(int depth, RandomGenerator gen) {
             if (depth > 0)
             {
                 for (int i = 0; i < children.size(); i++) {
-                    if (Utils.gen.nextDouble() < chanceOfLeaf)
+                    if (gen.nextDouble() < chanceOfLeaf)
                     {
-                        children.set(i, new LeafNode());
+                        children.set(i, new LeafNode(gen));
                     }
                     else
                     {
-                        DecNode newChild = DecNode.random();
-                        newChild.fillWithRandom(depth-1);
+                        DecNode newChild = DecNode.random(gen);
+                        newChild.fillWithRandom(depth-1, gen);
                         children.set(i, newChild);
                     }
                 }
@@ -290,7 +406,7 @@ public class DecTree {
             else if (depth <= 0) {
                 // Fill with leaves
                 for (int i = 0; i < children.size(); i++) {
-                    children.set(i, new LeafNode());
+                    children.set(i, new LeafNode(gen));
                 }
             }
         }
@@ -301,6 +417,11 @@ public class DecTree {
             return children.get(fulcrum).decide(data);
         }
 
+        @Override
+        public int decide(byte[][] features, int row) {
+            return children.get(features[decFactor][row]).decide(features, row);
+        }
+
         public String toString(int indent) {
             String res = "(" + CancerData.labels[decFactor] + ") " + Main.BLUE + "{" + Main.RESET + "\n";
             // Draw first child
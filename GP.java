@@ -2,22 +2,40 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class GP {
     TrainingData[] training;
     TrainingData[] testing;
+    ColumnarData columns; // training, encoded for scoring; rebuilt by columns() whenever training is replaced
     DecTree resultTree;
+    DecTree initialTree; // Takes the place of one random tree in the initial population, e.g. to resume from a checkpoint
     boolean verbose = false;
+    final SplittableRandom gen; // The data shuffle, batch sampling, selection and every tree's random choices
 
     final int DEFAULT_POPULATION_SIZE = 100;
     final int DEFAULT_MAX_GENERATIONS = 50;
     int POPULATION_SIZE = DEFAULT_POPULATION_SIZE;
     int MAX_GENERATIONS = DEFAULT_MAX_GENERATIONS;
     int EVALUATION_BATCH_SIZE = 200;
+    static final int EVALUATION_GRAIN = 16; // Trees per fork/join leaf task
+
+    // Fitness evaluation: every generation, tree i is scored on its own batch drawn from the i-th stream split off gen
+    // (in order, before any scoring starts), so the scores don't depend on the worker count or the order trees finish in
+    int workers = 1;
+    ForkJoinPool workerPool; // Only when workers > 1
 
     final double trainTestDisparityLimit = 0.1;
 
-    GP() {}
+    GP() {
+        this(Utils.rng.stream("gp"));
+    }
+
+    GP(SplittableRandom gen) {
+        this.gen = gen;
+    }
 
     public void setPopulationSize(int populationSize) {
         POPULATION_SIZE = populationSize;
@@ -27,21 +45,36 @@ public class GP {
         MAX_GENERATIONS = maxGenerations;
     }
 
-    // Pick a random sample of n elements from the training data
-    TrainingData[] getRandomBatch() {
-        TrainingData[] result = new TrainingData[EVALUATION_BATCH_SIZE];
+    void setWorkers(int workers) {
+        if (workers < 1)
+            throw new IllegalArgumentException("Need at least 1 worker, got " + workers);
+        if (workerPool != null) {
+            workerPool.shutdown();
+        }
+        this.workers = workers;
+        workerPool = workers > 1 ? new ForkJoinPool(workers) : null;
+    }
 
-        for (int i = 0; i < EVALUATION_BATCH_SIZE; i++) {
-            result[i] = training[(int)(Utils.gen.nextDouble() * training.length)];
+    // Fill `rows` with a random sample of training row ids
+    int[] getRandomRows(SplittableRandom random, int[] rows) {
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = (int)(random.nextDouble() * training.length);
         }
 
-        return result;
+        return rows;
+    }
+
+    ColumnarData columns() {
+        if (columns == null || columns.source != training) {
+            columns = new ColumnarData(training);
+        }
+        return columns;
     }
 
     void setData(List<TrainingData> data, double trainingRatio) {
         // Shuffle data
         for (int i = 0; i < data.size(); i++) {
-            int j = (int) (Utils.gen.nextDouble() * data.size());
+            int j = (int) (gen.nextDouble() * data.size());
             TrainingData temp = data.get(i);
             data.set(i, data.get(j));
             data.set(j, temp);
@@ -69,7 +102,7 @@ public class GP {
 
         // Randomly initialize all trees
         for (int i = 0; i < POPULATION_SIZE; i++) {
-            DecTree decTree = new DecTree();
+            DecTree decTree = i == 0 && initialTree != null ? new DecTree(initialTree) : new DecTree(gen);
             population.add(decTree);
         }
 
@@ -82,9 +115,7 @@ public class GP {
             // (Pick upper half of population by value)
 
             // Sort by performance
-            for (DecTree decTree : population) {
-                decTree.evaluate(getRandomBatch());
-            }
+            evaluate(population);
             Collections.sort(population, Comparator.comparing(DecTree::getValue));
 
             // Calculate average value
@@ -109,7 +140,7 @@ public class GP {
             ) {
                 // System.out.println("\n" + Main.GREEN + "BEST THIS ROUND: " + Main.YELLOW + bestTreeThisRound + Main.RESET);
                 bestEverIndividual = new DecTree(bestTreeThisRound);
-                bestEverIndividual.evaluate(getRandomBatch());
+                bestEverIndividual.evaluate(columns(), getRandomRows(gen, new int[EVALUATION_BATCH_SIZE]));
             }
             if (verbose)
             System.out.println("TRAIN ACCURACY: " + Main.YELLOW + bestTreeThisRound.getValue() + Main.RESET);
@@ -121,16 +152,16 @@ public class GP {
             for (int j = 0; j < POPULATION_SIZE/2; j++) {
 
                 // Get two random distinct parents
-                int parent1 = POPULATION_SIZE/2 + (int)(Utils.gen.nextDouble() * POPULATION_SIZE/2);
-                int parent2 = POPULATION_SIZE/2 + (int)(Utils.gen.nextDouble() * (POPULATION_SIZE/2-1));
+                int parent1 = POPULATION_SIZE/2 + (int)(gen.nextDouble() * POPULATION_SIZE/2);
+                int parent2 = POPULATION_SIZE/2 + (int)(gen.nextDouble() * (POPULATION_SIZE/2-1));
                 if (parent1 == parent2) { parent2++; }
 
-                DecTree child = new DecTree();
+                DecTree child = new DecTree(gen);
 
                 // Subtree swap
-                if (Utils.gen.nextDouble() < 0.33) {
+                if (gen.nextDouble() < 0.33) {
                     child = new DecTree(population.get(parent1));
-                    child.swapSubtree(population.get(parent2));
+                    child.swapSubtree(population.get(parent2), gen);
                 }
 
                 population.set(j, child);
@@ -139,7 +170,7 @@ public class GP {
             //===== MUTATE =====//
             // { subtree removal, subtree addition }
             for (int j = 0; j < POPULATION_SIZE; j++) {
-                population.get(j).mutate();
+                population.get(j).mutate(gen);
             }
 
         }
@@ -156,6 +187,55 @@ public class GP {
         return bestEverIndividual;
     }
 
+    // Score every tree on its own random batch, across the worker pool if there is one
+    void evaluate(List<DecTree> population) {
+        columns(); // Built here, before the workers share it
+        SplittableRandom[] batchStreams = new SplittableRandom[population.size()];
+        for (int i = 0; i < batchStreams.length; i++) {
+            batchStreams[i] = gen.split();
+        }
+
+        if (workerPool == null) {
+            evaluate(population, batchStreams, 0, batchStreams.length);
+        }
+        else {
+            workerPool.invoke(new EvaluationTask(population, batchStreams, 0, batchStreams.length));
+        }
+    }
+
+    // One row buffer for the whole range, so the scoring itself allocates nothing
+    private void evaluate(List<DecTree> population, SplittableRandom[] batchStreams, int from, int to) {
+        int[] rows = new int[EVALUATION_BATCH_SIZE];
+        for (int i = from; i < to; i++) {
+            population.get(i).evaluate(columns, getRandomRows(batchStreams[i], rows));
+        }
+    }
+
+    // Scores trees [from, to), halving the range until it's at most EVALUATION_GRAIN trees
+    @SuppressWarnings("serial") // Never serialized
+    private class EvaluationTask extends RecursiveAction {
+        final List<DecTree> population;
+        final SplittableRandom[] batchStreams;
+        final int from, to;
+
+        EvaluationTask(List<DecTree> population, SplittableRandom[] batchStreams, int from, int to) {
+            this.population = population;
+            this.batchStreams = batchStreams;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= EVALUATION_GRAIN) {
+                evaluate(population, batchStreams, from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new EvaluationTask(population, batchStreams, from, mid), new EvaluationTask(population, batchStreams, mid, to));
+        }
+    }
+
     // Test the resultant best individual from the most recent run
     void test() {
         if (resultTree == null) {
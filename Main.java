@@ -2,9 +2,10 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 import java.util.Set;
 
 public class Main {
@@ -18,7 +19,16 @@ public class Main {
     static boolean verbose = false;
     static int maxFiles = 100;
     static long seed = 0xD3ADB33F;
+    static Matrix.Precision precision = Matrix.Precision.DOUBLE;
+    static boolean oneHot = false;
     static Set<Algo> algos = Set.of(Algo.ANN, Algo.GP);
+    // Checkpoints are <dir>/<data file>.ann and <dir>/<data file>.gp
+    static File saveDir = null; // Save every trained model here
+    static File loadDir = null; // Load every model from here instead of training it
+    static boolean resume = false; // Keep training the loaded models
+    static boolean quantize = false; // Also report the ANN's accuracy drift under int8 quantization
+    static String optimizer = "sgd"; // One of ANN.OPTIMIZERS
+    static Sweep sweep = null; // Sweep the ANN's hyperparameters instead of training the single network
 
     public static void main(String[] args) {
         String inputFolder = "./data";
@@ -52,34 +62,95 @@ public class Main {
                 if (seed == 0xD3ADB33F) {
                     seed = (long)(1000000*Math.random());
                 }
+                // Each algorithm draws from its own stream, so running one doesn't change the other's results
+                RandomStreams streams = new RandomStreams(seed);
 
-                // ANN
                 if (algos.contains(Algo.ANN)) {
-                    System.out.println(GREEN + "<===== Running ANN =====>" + RESET);
-                    Utils.gen = new Random(seed);
-                    ANN ann = new ANN(new int[] {9, 5, 3, 5, 2});
-                    ann.setVerbose(verbose);
-                    ann.setData(data, 0.8);
-                    ann.train2();
-                    ann.test();
-                    System.out.println("\n\n");
+                    runANN(f, data, streams);
                 }
-
-                // GP
                 if (algos.contains(Algo.GP)) {
-                    System.out.println(GREEN + "<===== Running GP =====>" + RESET);
-                    Utils.gen = new Random(seed);
-                    GP gp = new GP();
-                    gp.setVerbose(verbose);
-                    gp.setData(data, 0.8);
-                    gp.optimize();
-                    gp.test();
-                    System.out.println();
+                    runGP(f, data, streams);
                 }
             }
         }
     }
 
+    // A checkpoint that fails to load is reported and ends this model's run, one that fails to save is reported and
+    // the model is still tested; either way the other model still runs
+    static void runANN(File f, List<TrainingData> data, RandomStreams streams) {
+        System.out.println(GREEN + "<===== Running ANN =====>" + RESET);
+        // A sweep replaces the single network; GP still runs afterwards
+        if (sweep != null) {
+            sweep.run(data, seed, precision, oneHot, optimizer);
+            System.out.println("\n\n");
+            return;
+        }
+        int inputSize = oneHot ? CancerData.ONE_HOT_SIZE : 9;
+        ANN ann = new ANN(new int[] {inputSize, 5, 3, 5, 2}, precision, streams.stream("ann"));
+        ann.setVerbose(verbose);
+        ann.setOptimizer(ann.newOptimizer(optimizer));
+        ann.setData(new ArrayList<>(data), 0.8); // A copy: the shuffle is in place, and GP gets the file order either way
+        // The network and split are drawn as usual either way, so a given seed tests a loaded network on the same split
+        if (loadDir != null && !checkpoint(() -> ann.restoreCheckpoint(checkpointPath(loadDir, f, "ann"),
+                FileChannel.MapMode.READ_ONLY))) { return; }
+        if (loadDir == null || resume) {
+            if (loadDir != null) {
+                ann.moveOnHeap(); // Mapped weights only have the slow per-element paths to train on
+            }
+            ann.train2();
+        }
+        if (saveDir != null) {
+            checkpoint(() -> ann.saveCheckpoint(checkpointPath(saveDir, f, "ann")));
+        }
+        ann.test();
+        if (quantize) {
+            System.out.println();
+            new QuantizedANN(ann, ann.training).compare(ann, ann.testing);
+        }
+        System.out.println("\n\n");
+    }
+
+    static void runGP(File f, List<TrainingData> data, RandomStreams streams) {
+        System.out.println(GREEN + "<===== Running GP =====>" + RESET);
+        GP gp = new GP(streams.stream("gp"));
+        gp.setVerbose(verbose);
+        gp.setData(data, 0.8);
+        if (loadDir != null && !checkpoint(() -> gp.resultTree = DecTree.load(checkpointPath(loadDir, f, "gp")))) { return; }
+        if (loadDir == null || resume) {
+            gp.initialTree = gp.resultTree;
+            gp.setWorkers(Runtime.getRuntime().availableProcessors()); // Same results for any worker count
+            try {
+                gp.optimize();
+            } finally {
+                gp.setWorkers(1); // Shuts the pool down, rather than leaving one behind for every data file
+            }
+        }
+        if (saveDir != null) {
+            checkpoint(() -> gp.resultTree.save(checkpointPath(saveDir, f, "gp")));
+        }
+        gp.test();
+        System.out.println();
+    }
+
+    static Path checkpointPath(File dir, File dataFile, String algo) {
+        return dir.toPath().resolve(dataFile.getName() + "." + algo);
+    }
+
+    interface CheckpointAction {
+        void run() throws IOException;
+    }
+
+    // Run a checkpoint save/load, reporting whether it worked
+    static boolean checkpoint(CheckpointAction action) {
+        try {
+            action.run();
+            return true;
+        } catch (IOException e) {
+            System.out.println(RED + "Checkpoint failed: " + e.getMessage() + RESET);
+            return false;
+        }
+    }
+
     // File format:
     // class,age,menopause,tumor-size,inv-nodes,node-caps,deg-malig,breast,breast-quad,irradiat
     public static List<TrainingData> readCancerDataFromFile(String filePath) {
@@ -171,6 +242,70 @@ public class Main {
 
                                 break;
 
+                            case 'f': //Single-precision ANN
+                                precision = Matrix.Precision.FLOAT;
+                                break;
+
+                            case 'o': //One-hot (sparse) ANN inputs
+                                oneHot = true;
+                                break;
+
+                            case 'c': //Save checkpoints after training
+                            case 'l': //Load checkpoints instead of training
+                                char flag = arg.charAt(c);
+                                if(!handleParameterizedFlag(c, i, flag)) { return false; }
+
+                                File dir = new File(args[i+1]);
+                                i++;
+                                if (flag == 'c') {
+                                    if (!dir.isDirectory() && !dir.mkdirs()) {
+                                        System.out.println(RED + "Failed to create checkpoint directory: " + dir + RESET);
+                                        return false;
+                                    }
+                                    saveDir = dir;
+                                }
+                                else {
+                                    if (!dir.isDirectory()) {
+                                        System.out.println(RED + "No such checkpoint directory: " + dir + RESET);
+                                        return false;
+                                    }
+                                    loadDir = dir;
+                                }
+                                break;
+
+                            case 'r': //Resume training from loaded checkpoints
+                                resume = true;
+                                break;
+
+                            case 'q': //int8 quantized ANN
+                                quantize = true;
+                                break;
+
+                            case 'u': //ANN weight update rule
+                                if(!handleParameterizedFlag(c, i, 'u')) { return false; }
+
+                                if (!ANN.OPTIMIZERS.contains(args[i+1])) {
+                                    System.out.println(RED + "Unknown optimizer: " + args[i+1] + RESET);
+                                    System.out.println(RED + "Options include: " + ANN.OPTIMIZERS + RESET);
+                                    return false;
+                                }
+                                optimizer = args[i+1];
+                                i++;
+                                break;
+
+                            case 'w': //Hyperparameter sweep
+                                if(!handleParameterizedFlag(c, i, 'w')) { return false; }
+
+                                try {
+                                    sweep = new Sweep(args[i+1]);
+                                    i++;
+                                }
+                                catch (IllegalArgumentException e) {
+                                    System.out.println(RED + "Invalid sweep: " + e.getMessage() + RESET);
+                                    return false;
+                                }
+                                break;
+
                             case 'v': //Verbose output
                                 verbose = true;
                                 break;
@@ -193,6 +328,14 @@ public class Main {
                                 System.out.println("-a <algo> \t: Use specific algorithm");
                                 System.out.println("-n <num> \t: Specify max. no. of input files");
                                 System.out.println("-s <num> \t: Use custom seed");
+                                System.out.println("-f \t\t: Train the ANN in single precision (float32)");
+                                System.out.println("-o \t\t: Feed the ANN one-hot encoded (sparse) inputs");
+                                System.out.println("-c <dir> \t: Save a checkpoint of each trained model in <dir>");
+                                System.out.println("-l <dir> \t: Load each model's checkpoint from <dir> instead of training it");
+                                System.out.println("-r \t\t: With -l, keep training the loaded models");
+                                System.out.println("-u <opt> \t: Train the ANN with this optimizer: sgd (default), momentum or adam");
+                                System.out.println("-q \t\t: Also quantize the trained ANN to int8 and report its accuracy drift");
+                                System.out.println("-w <spec> \t: Sweep the ANN's hyperparameters instead (with -u's optimizer; not with -q), e.g. \"layers=5-3-5,8;lr=0.01,0.05;batch=10,20\"");
                                 System.out.println("-v \t\t: Verbose output");
                                 // TODO: -s for setting seed manually
                                 System.out.println("-h \t\t: Print this message");
@@ -206,6 +349,12 @@ public class Main {
                 }
             }
 
+            // A sweep ranks its candidates without keeping any of them, so there's no single network to quantize
+            if (sweep != null && quantize) {
+                System.out.println(RED + "-q can't be combined with a sweep (-w)" + RESET);
+                return false;
+            }
+
             return true;
         }
 
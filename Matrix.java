@@ -1,56 +1,190 @@
 // Adapted from: [https://introcs.cs.princeton.edu/java/95linear/Matrix.java.html]
 // Immutable matrix implementation
+// (except for the *Into / *InPlace methods, which write into existing storage for allocation-free hot loops)
+// Backed by a single row-major double[]; element (r, c) lives at data[offset + r*stride + c]
+// Alternatively backed by a float[] (single precision) or an off-heap DoubleBuffer (direct or memory-mapped) with the same layout
+// One buffer spans at most 2^31-1 bytes, so a buffer-backed matrix holds at most ~268M doubles whatever the heap size;
+// allocateDirect() and map() reject larger ones rather than chunking them over several buffers
+// Buffer-backed operands take the generic per-element paths (no tiling or SIMD) in gemm, transposeMultInto and the
+// in-place zips: fine for inference from mapped weights, but copy() them onto the heap before training on them
 
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
 import java.util.function.Function;
+import java.util.random.RandomGenerator;
 
 final public class Matrix {
     public final int R;
     public final int C;
-    private final double[][] data;
+    private final double[] data;
+    private final float[] fdata;       // Single-precision storage, used instead of `data` when non-null
+    private final DoubleBuffer buffer; // Off-heap storage, used instead of `data` when non-null
+    private final int offset;
+    private final int stride; // Distance between the starts of consecutive rows
+    private LUDecomposition lu; // Cached by lu(), dropped by every in-place write
+
+    public enum Precision { DOUBLE, FLOAT }
+
+    // GEMM tile sizes (in elements)
+    // A KC x NC panel of Y is 256*128*8 bytes = 256KB, which sits comfortably in L2
+    static final int KC = 256;
+    static final int NC = 128;
+
+    // Parallel GEMM settings (global defaults; mult/multInto can override `parallel` per call)
+    // Products with fewer multiply-adds than the threshold always run serially
+    private static boolean parallel = true;
+    private static long parallelThreshold = 1L << 18;
+    private static ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    public static void setParallel(boolean parallel) {
+        Matrix.parallel = parallel;
+    }
+
+    public static void setParallelThreshold(long multiplyAdds) {
+        Matrix.parallelThreshold = multiplyAdds;
+    }
+
+    public static void setPool(ForkJoinPool pool) {
+        Matrix.pool = pool;
+    }
+
+    // Use the Vector API kernels when the jdk.incubator.vector module is present
+    // (`--add-modules jdk.incubator.vector`), unless disabled with -Dmatrix.simd=false
+    static final boolean SIMD =
+        ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent() &&
+        !"false".equals(System.getProperty("matrix.simd"));
 
     // Zero matrix
     public Matrix(int R, int C) {
-        this.R = R;
-        this.C = C;
-        data = new double[R][C];
+        this(R, C, new double[R * C], null, null);
+    }
+
+    // Zero matrix of the given precision
+    public Matrix(int R, int C, Precision precision) {
+        this(R, C,
+            precision == Precision.DOUBLE ? new double[R * C] : null,
+            precision == Precision.FLOAT ? new float[R * C] : null,
+            null);
     }
 
     public Matrix(double[][] data) {
-        R = data.length;
-        C = data[0].length;
-        this.data = new double[R][C];
+        this(data.length, data[0].length);
         for (int r = 0; r < R; r++)
+            System.arraycopy(data[r], 0, this.data, r * C, C);
+    }
+
+    // Wraps compact storage of any kind without copying (exactly one of the three is non-null)
+    private Matrix(int R, int C, double[] data, float[] fdata, DoubleBuffer buffer) {
+        this(R, C, data, fdata, buffer, 0, C);
+    }
+
+    // Wraps existing storage without copying
+    private Matrix(int R, int C, double[] data, float[] fdata, DoubleBuffer buffer, int offset, int stride) {
+        this.R = R;
+        this.C = C;
+        this.data = data;
+        this.fdata = fdata;
+        this.buffer = buffer;
+        this.offset = offset;
+        this.stride = stride;
+    }
+
+    // Zero matrix in native (direct) memory, outside the Java heap
+    public static Matrix allocateDirect(int R, int C) {
+        return new Matrix(R, C, null, null, java.nio.ByteBuffer.allocateDirect(Math.multiplyExact(Math.multiplyExact(R, C), Double.BYTES))
+            .order(ByteOrder.nativeOrder())
+            .asDoubleBuffer());
+    }
+
+    // Maps R*C little-endian doubles (row-major) starting at byte `position` of the file, without copying
+    // READ_ONLY mappings reject writes, PRIVATE mappings are copy-on-write, READ_WRITE writes through to the file
+    public static Matrix map(FileChannel channel, long position, int R, int C, FileChannel.MapMode mode) throws IOException {
+        long bytes = (long)R * C * Double.BYTES;
+        return new Matrix(R, C, null, null, channel.map(mode, position, bytes)
+            .order(ByteOrder.LITTLE_ENDIAN)
+            .asDoubleBuffer());
+    }
+
+    // Same layout as map() expects
+    public void writeTo(FileChannel channel, long position) throws IOException {
+        java.nio.ByteBuffer bytes = java.nio.ByteBuffer.allocate(C * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (int r = 0; r < R; r++) {
+            bytes.clear();
             for (int c = 0; c < C; c++)
-                this.data[r][c] = data[r][c];
+                bytes.putDouble(get(r, c));
+            bytes.flip();
+            while (bytes.hasRemaining())
+                position += channel.write(bytes, position);
+        }
+    }
+
+    public boolean isOffHeap() {
+        return buffer != null;
+    }
+
+    public Precision precision() {
+        return fdata != null ? Precision.FLOAT : Precision.DOUBLE;
+    }
+
+    // Heap copy in the given precision
+    public Matrix toPrecision(Precision precision) {
+        if (precision == Precision.DOUBLE) return new Matrix(this);
+        return new Matrix(R, C, Precision.FLOAT).copyFrom(this);
     }
 
     public static Matrix columnVector(double[] data) {
         Matrix A = new Matrix(data.length, 1);
-        for (int r = 0; r < data.length; r++)
-            A.data[r][0] = data[r];
+        System.arraycopy(data, 0, A.data, 0, data.length);
         return A;
     }
 
-    // Copy constructor
+    // R x 1 view of column c, sharing this matrix's storage: writes through it show up here
+    // (but don't drop this matrix's cached lu())
+    public Matrix column(int c) {
+        if (c < 0 || c >= C)
+            throw new RuntimeException("Illegal matrix dimensions. " + dims() + " has no column " + c);
+        return new Matrix(R, 1, data, fdata, buffer, index(0, c), stride);
+    }
+
+    // Copy constructor (always produces a compact, heap-backed, double precision matrix)
     private Matrix(Matrix A) {
-        this(A.data);
+        this(A.R, A.C);
+        for (int r = 0; r < R; r++) {
+            int a = A.index(r, 0);
+            if (A.data != null) System.arraycopy(A.data, a, data, r * C, C);
+            else if (A.buffer != null) A.buffer.get(a, data, r * C, C);
+            else for (int c = 0; c < C; c++) data[r * C + c] = A.fdata[a + c];
+        }
+    }
+
+    // Heap copy that keeps the precision of this matrix
+    public Matrix copy() {
+        return toPrecision(precision());
     }
 
     // Random RxC matrix with values in (0, 1)
     public static Matrix random(int R, int C) {
+        return random(R, C, Utils.rng.stream("matrix"));
+    }
+
+    // Same as above, drawing from the given generator
+    public static Matrix random(int R, int C, RandomGenerator gen) {
         Matrix A = new Matrix(R, C);
-        for (int r = 0; r < R; r++)
-            for (int c = 0; c < C; c++)
-                A.data[r][c] = Utils.gen.nextDouble();
+        for (int i = 0; i < A.data.length; i++)
+            A.data[i] = gen.nextDouble();
         return A;
     }
 
     // MxN matrix of all 1's
     public static Matrix ones(int M, int N) {
         Matrix A = new Matrix(M, N);
-        for (int r = 0; r < M; r++)
-            for (int c = 0; c < N; c++)
-                A.data[r][c] = 1;
+        java.util.Arrays.fill(A.data, 1);
         return A;
     }
 
@@ -58,166 +192,996 @@ final public class Matrix {
     public static Matrix identity(int N) {
         Matrix I = new Matrix(N, N);
         for (int n = 0; n < N; n++)
-            I.data[n][n] = 1;
+            I.data[n * N + n] = 1;
         return I;
     }
 
+    private int index(int r, int c) {
+        return offset + r * stride + c;
+    }
+
+    // Element access that works for any storage; the hot paths index the arrays directly instead
+    private double at(int i) {
+        if (data != null) return data[i];
+        if (fdata != null) return fdata[i];
+        return buffer.get(i);
+    }
+
+    private void put(int i, double value) {
+        if (data != null) data[i] = value;
+        else if (fdata != null) fdata[i] = (float)value;
+        else buffer.put(i, value);
+    }
+
+    // Whether all R*C elements form one unbroken run in storage
+    private boolean isContiguous() {
+        return stride == C || R == 1;
+    }
+
     // Swap rows i and j
     private void swap(int i, int j) {
-        double[] temp = data[i];
-        data[i] = data[j];
-        data[j] = temp;
+        if (i == j) return;
+        int a = index(i, 0);
+        int b = index(j, 0);
+        for (int c = 0; c < C; c++) {
+            double temp = data[a + c];
+            data[a + c] = data[b + c];
+            data[b + c] = temp;
+        }
     }
 
+    // Keeps this matrix's precision, like the rest of the functional API
     public Matrix transpose() {
-        Matrix A = new Matrix(C, R);
-        for (int r = 0; r < R; r++)
+        Matrix A = new Matrix(C, R, precision());
+        for (int r = 0; r < R; r++) {
+            int row = index(r, 0);
             for (int c = 0; c < C; c++)
-                A.data[c][r] = this.data[r][c];
+                A.put(c * R + r, at(row + c));
+        }
         return A;
     }
 
+    // Curried, boxed form kept for existing callers; every element allocates, so prefer the overload below
     public Matrix zipWith(Matrix Y, Function<Double, Function<Double, Double>> f) {
+        return zipWith(Y, (x, y) -> f.apply(x).apply(y));
+    }
+
+    public Matrix zipWith(Matrix Y, DoubleBinaryOperator f) {
         Matrix X = this;
-        if (Y.R != X.R || Y.C != X.C)
-            throw new RuntimeException("Illegal matrix dimensions. " + X.dims() + " " + Y.dims());
-        Matrix Z = new Matrix(R, C);
-        for (int r = 0; r < R; r++)
+        X.checkSameDims(Y);
+        Matrix Z = new Matrix(R, C, precision()); // X's precision, as in add()
+        for (int r = 0; r < R; r++) {
+            int x = X.index(r, 0), y = Y.index(r, 0), z = r * C;
             for (int c = 0; c < C; c++)
-                Z.data[r][c] = f.apply(X.data[r][c]).apply(Y.data[r][c]);
+                Z.put(z + c, f.applyAsDouble(X.at(x + c), Y.at(y + c)));
+        }
         return Z;
     }
 
     // Z = X + Y
     public Matrix add(Matrix Y) {
-        return zipWith(Y, x -> y -> x + y);
+        return copy().addInPlace(Y);
     }
 
     // Z = X - Y
     public Matrix sub(Matrix Y) {
-        return zipWith(Y, x -> y -> x - y);
+        return copy().subInPlace(Y);
     }
 
     // Hadamard product Z = X .* Y
     public Matrix hadamard(Matrix Y) {
-        return zipWith(Y, x -> y -> x * y);
+        return copy().hadamardInPlace(Y);
     }
 
     public boolean equals(Matrix Y) {
         Matrix X = this;
         if (Y.R != X.R || Y.C != X.C)
             throw new RuntimeException("Illegal matrix dimensions. " + X.dims() + " " + Y.dims());
-        for (int r = 0; r < R; r++)
+        for (int r = 0; r < R; r++) {
+            int x = X.index(r, 0), y = Y.index(r, 0);
             for (int c = 0; c < C; c++)
-                if (X.data[r][c] != Y.data[r][c])
+                if (X.at(x + c) != Y.at(y + c))
                     return false;
+        }
         return true;
     }
 
     // Scalar multiplication Z = k * X
     public Matrix mult(double k) {
-        Matrix X = this;
-        Matrix Z = new Matrix(R, C);
-        for (int r = 0; r < R; r++)
-            for (int c = 0; c < C; c++)
-                Z.data[r][c] = k * X.data[r][c];
-        return Z;
+        return copy().scaleInPlace(k);
     }
 
     // Matrix multiplication Z = X * Y
     public Matrix mult(Matrix Y) {
+        return mult(Y, parallel);
+    }
+
+    public Matrix mult(Matrix Y, boolean parallel) {
         Matrix X = this;
         if (X.C != Y.R)
             throw new RuntimeException("Illegal matrix dimensions. " + X.dims() + " " + Y.dims());
-        Matrix Z = new Matrix(X.R, Y.C);
-        for (int rZ = 0; rZ < Z.R; rZ++)
-            for (int cZ = 0; cZ < Z.C; cZ++)
-                for (int cA = 0; cA < X.C; cA++)
-                    Z.data[rZ][cZ] += (X.data[rZ][cA] * Y.data[cA][cZ]);
+        Matrix Z = new Matrix(X.R, Y.C, X.precision());
+        gemm(X, Y, Z, parallel);
         return Z;
     }
 
-    public Matrix map(Function<Double, Double> f) {
-        Matrix A = new Matrix(this);
-        for (int r = 0; r < A.R; r++)
-            for (int c = 0; c < A.C; c++)
-                A.data[r][c] = f.apply(A.data[r][c]);
-        return A;
+    // Matrix-vector multiplication z = X * v for a sparse v, in O(nnz * R)
+    public Matrix mult(SparseVector v) {
+        return multInto(v, new Matrix(R, 1, precision()));
+    }
+
+    // Z += X * Y, split across the fork/join pool when it is large enough to be worth it
+    private static void gemm(Matrix X, Matrix Y, Matrix Z, boolean parallel) {
+        if (parallel && (long)X.R * X.C * Y.C >= parallelThreshold && X.R > GemmTask.MIN_ROWS) {
+            pool.invoke(new GemmTask(X, Y, Z, 0, X.R));
+        }
+        else {
+            gemm(X, Y, Z, 0, X.R);
+        }
+    }
+
+    // Recursively halves the rows of Z; tasks own disjoint rows and run the same serial
+    // kernel, so the result is bit-identical to the serial path
+    @SuppressWarnings("serial") // Never serialized
+    private static class GemmTask extends RecursiveAction {
+        static final int MIN_ROWS = 4; // Keep the 4-row register blocks intact
+
+        final Matrix X, Y, Z;
+        final int r0, r1;
+
+        GemmTask(Matrix X, Matrix Y, Matrix Z, int r0, int r1) {
+            this.X = X;
+            this.Y = Y;
+            this.Z = Z;
+            this.r0 = r0;
+            this.r1 = r1;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = r1 - r0;
+            if (rows <= MIN_ROWS || (long)rows * X.C * Y.C < parallelThreshold) {
+                gemm(X, Y, Z, r0, r1);
+                return;
+            }
+            // Split on a multiple of the register block
+            int mid = r0 + ((rows / 2 + MIN_ROWS - 1) / MIN_ROWS) * MIN_ROWS;
+            invokeAll(new GemmTask(X, Y, Z, r0, mid), new GemmTask(X, Y, Z, mid, r1));
+        }
+    }
+
+    // Z[r0..r1) += X[r0..r1) * Y
+    // Every Z(r, c) accumulates its products in ascending k order, exactly like the naive
+    // triple loop, so the result is bit-identical regardless of how the rows are tiled
+    static void gemm(Matrix X, Matrix Y, Matrix Z, int r0, int r1) {
+        if (X.data != null && Y.data != null && Z.data != null) {
+            gemmDouble(X, Y, Z, r0, r1);
+        }
+        else if (X.fdata != null && Y.fdata != null && Z.fdata != null) {
+            gemmFloat(X, Y, Z, r0, r1);
+        }
+        else {
+            // Mixed precision or off-heap operands
+            for (int r = r0; r < r1; r++)
+                for (int j = 0; j < Y.C; j++) {
+                    double sum = 0;
+                    for (int k = 0; k < X.C; k++)
+                        sum += X.at(X.index(r, k)) * Y.at(Y.index(k, j));
+                    Z.put(Z.index(r, j), Z.at(Z.index(r, j)) + sum);
+                }
+        }
+    }
+
+    private static void gemmDouble(Matrix X, Matrix Y, Matrix Z, int r0, int r1) {
+        int K = X.C;
+        int N = Y.C;
+
+        // Matrix-vector product: a plain dot product per row is already contiguous
+        if (N == 1) {
+            boolean vectorise = SIMD && Y.isContiguous();
+            for (int r = r0; r < r1; r++) {
+                int x = X.index(r, 0);
+                double sum = 0;
+                if (vectorise) {
+                    sum = VectorKernels.dot(X.data, x, Y.data, Y.offset, K);
+                }
+                else {
+                    for (int k = 0; k < K; k++)
+                        sum += X.data[x + k] * Y.data[Y.index(k, 0)];
+                }
+                Z.data[Z.index(r, 0)] += sum;
+            }
+            return;
+        }
+
+        // Tile Y into KC x NC panels, then sweep 4 rows of X over each panel at once so
+        // every row of the panel that is loaded feeds 4 accumulating rows of Z
+        for (int kk = 0; kk < K; kk += KC) {
+            int kEnd = Math.min(kk + KC, K);
+            for (int jj = 0; jj < N; jj += NC) {
+                int jEnd = Math.min(jj + NC, N);
+
+                int r = r0;
+                for (; r + 3 < r1; r += 4) {
+                    int x0 = X.index(r, 0), x1 = x0 + X.stride, x2 = x1 + X.stride, x3 = x2 + X.stride;
+                    int z0 = Z.index(r, 0), z1 = z0 + Z.stride, z2 = z1 + Z.stride, z3 = z2 + Z.stride;
+                    for (int k = kk; k < kEnd; k++) {
+                        double a0 = X.data[x0 + k];
+                        double a1 = X.data[x1 + k];
+                        double a2 = X.data[x2 + k];
+                        double a3 = X.data[x3 + k];
+                        int y = Y.index(k, 0);
+                        if (SIMD) {
+                            VectorKernels.axpy4(a0, a1, a2, a3, Y.data, y + jj, Z.data, z0 + jj, z1 + jj, z2 + jj, z3 + jj, jEnd - jj);
+                            continue;
+                        }
+                        for (int j = jj; j < jEnd; j++) {
+                            double b = Y.data[y + j];
+                            Z.data[z0 + j] += a0 * b;
+                            Z.data[z1 + j] += a1 * b;
+                            Z.data[z2 + j] += a2 * b;
+                            Z.data[z3 + j] += a3 * b;
+                        }
+                    }
+                }
+
+                // Leftover rows
+                for (; r < r1; r++) {
+                    int x = X.index(r, 0);
+                    int z = Z.index(r, 0);
+                    for (int k = kk; k < kEnd; k++) {
+                        axpy(X.data[x + k], Y.data, Y.index(k, jj), Z.data, z + jj, jEnd - jj);
+                    }
+                }
+            }
+        }
+    }
+
+    // Single-precision twin of gemmDouble; accumulates in float
+    private static void gemmFloat(Matrix X, Matrix Y, Matrix Z, int r0, int r1) {
+        int K = X.C;
+        int N = Y.C;
+
+        if (N == 1) {
+            boolean vectorise = SIMD && Y.isContiguous();
+            for (int r = r0; r < r1; r++) {
+                int x = X.index(r, 0);
+                float sum = 0;
+                if (vectorise) {
+                    sum = VectorKernels.dot(X.fdata, x, Y.fdata, Y.offset, K);
+                }
+                else {
+                    for (int k = 0; k < K; k++)
+                        sum += X.fdata[x + k] * Y.fdata[Y.index(k, 0)];
+                }
+                Z.fdata[Z.index(r, 0)] += sum;
+            }
+            return;
+        }
+
+        for (int kk = 0; kk < K; kk += KC) {
+            int kEnd = Math.min(kk + KC, K);
+            for (int jj = 0; jj < N; jj += NC) {
+                int jEnd = Math.min(jj + NC, N);
+
+                int r = r0;
+                for (; r + 3 < r1; r += 4) {
+                    int x0 = X.index(r, 0), x1 = x0 + X.stride, x2 = x1 + X.stride, x3 = x2 + X.stride;
+                    int z0 = Z.index(r, 0), z1 = z0 + Z.stride, z2 = z1 + Z.stride, z3 = z2 + Z.stride;
+                    for (int k = kk; k < kEnd; k++) {
+                        float a0 = X.fdata[x0 + k];
+                        float a1 = X.fdata[x1 + k];
+                        float a2 = X.fdata[x2 + k];
+                        float a3 = X.fdata[x3 + k];
+                        int y = Y.index(k, 0);
+                        if (SIMD) {
+                            VectorKernels.axpy4(a0, a1, a2, a3, Y.fdata, y + jj, Z.fdata, z0 + jj, z1 + jj, z2 + jj, z3 + jj, jEnd - jj);
+                            continue;
+                        }
+                        for (int j = jj; j < jEnd; j++) {
+                            float b = Y.fdata[y + j];
+                            Z.fdata[z0 + j] += a0 * b;
+                            Z.fdata[z1 + j] += a1 * b;
+                            Z.fdata[z2 + j] += a2 * b;
+                            Z.fdata[z3 + j] += a3 * b;
+                        }
+                    }
+                }
+
+                for (; r < r1; r++) {
+                    int x = X.index(r, 0);
+                    int z = Z.index(r, 0);
+                    for (int k = kk; k < kEnd; k++) {
+                        axpy(X.fdata[x + k], Y.fdata, Y.index(k, jj), Z.fdata, z + jj, jEnd - jj);
+                    }
+                }
+            }
+        }
+    }
+
+    public Matrix map(DoubleUnaryOperator f) {
+        return mapInto(f, new Matrix(R, C, precision()));
+    }
+
+    //===== IN-PLACE API =====//
+    // These overwrite either `this` or an explicit destination and return it, so they can be chained.
+    // Destinations must not alias any of the operands unless stated otherwise.
+
+    private void checkSameDims(Matrix Y) {
+        if (Y.R != R || Y.C != C)
+            throw new RuntimeException("Illegal matrix dimensions. " + dims() + " " + Y.dims());
+    }
+
+    public Matrix set(int r, int c, double value) {
+        lu = null;
+        put(index(r, c), value);
+        return this;
+    }
+
+    public Matrix fill(double value) {
+        return zipInPlace(this, FILL, value);
+    }
+
+    // this = Y (converting precision if they differ)
+    public Matrix copyFrom(Matrix Y) {
+        return zipInPlace(Y, COPY, 0);
+    }
+
+    // this += Y (Y may alias this)
+    public Matrix addInPlace(Matrix Y) {
+        return zipInPlace(Y, ADD, 0);
+    }
+
+    // this -= Y (Y may alias this)
+    public Matrix subInPlace(Matrix Y) {
+        return zipInPlace(Y, SUB, 0);
+    }
+
+    // this = this .* Y (Y may alias this)
+    public Matrix hadamardInPlace(Matrix Y) {
+        return zipInPlace(Y, MUL, 0);
+    }
+
+    // this = this .* (Z > 0 ? 1 : 0), i.e. the product with the ReLU derivative of Z (Z may alias this)
+    public Matrix hadamardStepInPlace(Matrix Z) {
+        return zipInPlace(Z, STEP, 0);
+    }
+
+    // dst = max(this, floor), element-wise; floor = 0 gives ReLU (dst may alias this)
+    public Matrix maxInto(double floor, Matrix dst) {
+        return dst.zipInPlace(this, MAX, floor);
+    }
+
+    // this = this .* f(Z) (Z may alias this)
+    public Matrix hadamardInPlace(Matrix Z, DoubleUnaryOperator f) {
+        lu = null;
+        checkSameDims(Z);
+        for (int r = 0; r < R; r++) {
+            int x = index(r, 0), z = Z.index(r, 0);
+            for (int c = 0; c < C; c++)
+                put(x + c, at(x + c) * f.applyAsDouble(Z.at(z + c)));
+        }
+        return this;
+    }
+
+    // dst = f(this) (dst may alias this)
+    public Matrix mapInto(DoubleUnaryOperator f, Matrix dst) {
+        dst.lu = null;
+        checkSameDims(dst);
+        for (int r = 0; r < R; r++) {
+            int x = index(r, 0), z = dst.index(r, 0);
+            for (int c = 0; c < C; c++)
+                dst.put(z + c, f.applyAsDouble(at(x + c)));
+        }
+        return dst;
+    }
+
+    // Array-level kernel over matching runs of two matrices' storage: element i of a run is x[xOffset + i] and y[yOffset + i]
+    public interface RunKernel {
+        void apply(double[] x, int xOffset, double[] y, int yOffset, int length);
+    }
+
+    // Hands this matrix's and dst's storage to `kernel`, in one run when both are compact and one run per row otherwise
+    // Only heap double matrices have a double[] to hand out; for anything else it returns false without doing anything
+    public boolean zipRuns(RunKernel kernel, Matrix dst) {
+        if (data == null || dst.data == null) return false;
+        dst.lu = null;
+        checkSameDims(dst);
+        if (isContiguous() && dst.isContiguous()) {
+            kernel.apply(data, offset, dst.data, dst.offset, R * C);
+            return true;
+        }
+        for (int r = 0; r < R; r++)
+            kernel.apply(data, index(r, 0), dst.data, dst.index(r, 0), C);
+        return true;
+    }
+
+    // this = k * this
+    public Matrix scaleInPlace(double k) {
+        return zipInPlace(this, SCALE, k);
+    }
+
+    // this += a * X
+    public Matrix axpy(double a, Matrix X) {
+        return zipInPlace(X, AXPY, a);
+    }
+
+    // Σ (this - Y)^2
+    public double squaredDistance(Matrix Y) {
+        checkSameDims(Y);
+        double sum = 0;
+        if (data != null && Y.data != null) {
+            if (isContiguous() && Y.isContiguous())
+                return squaredDistance(data, offset, Y.data, Y.offset, R * C);
+            for (int r = 0; r < R; r++)
+                sum += squaredDistance(data, index(r, 0), Y.data, Y.index(r, 0), C);
+            return sum;
+        }
+        if (fdata != null && Y.fdata != null) {
+            if (isContiguous() && Y.isContiguous())
+                return squaredDistance(fdata, offset, Y.fdata, Y.offset, R * C);
+            for (int r = 0; r < R; r++)
+                sum += squaredDistance(fdata, index(r, 0), Y.fdata, Y.index(r, 0), C);
+            return sum;
+        }
+        // Mixed precision or off-heap operands
+        for (int r = 0; r < R; r++) {
+            int x = index(r, 0), y = Y.index(r, 0);
+            for (int c = 0; c < C; c++) {
+                double d = at(x + c) - Y.at(y + c);
+                sum += d * d;
+            }
+        }
+        return sum;
+    }
+
+    // this += alpha * (u * v^T), for column vectors u and v
+    public Matrix addOuterProduct(double alpha, Matrix u, Matrix v) {
+        lu = null;
+        if (u.C != 1 || v.C != 1 || u.R != R || v.R != C)
+            throw new RuntimeException("Illegal matrix dimensions. " + dims() + " " + u.dims() + " " + v.dims());
+        for (int r = 0; r < R; r++) {
+            int x = index(r, 0);
+            double ur = u.at(u.index(r, 0));
+            for (int c = 0; c < C; c++)
+                put(x + c, at(x + c) + alpha * (ur * v.at(v.index(c, 0))));
+        }
+        return this;
+    }
+
+    // this += alpha * (u * v^T) for a sparse v; only the columns where v is non-zero change
+    public Matrix addOuterProduct(double alpha, Matrix u, SparseVector v) {
+        lu = null;
+        if (u.C != 1 || u.R != R || v.size != C)
+            throw new RuntimeException("Illegal matrix dimensions. " + dims() + " " + u.dims() + " " + v.dims());
+        int[] idx = v.indices;
+        for (int r = 0; r < R; r++) {
+            int x = index(r, 0);
+            double ur = u.at(u.index(r, 0));
+            for (int k = 0; k < idx.length; k++)
+                put(x + idx[k], at(x + idx[k]) + alpha * (ur * v.value(k)));
+        }
+        return this;
+    }
+
+    // dst = X * Y
+    public Matrix multInto(Matrix Y, Matrix dst) {
+        return multInto(Y, dst, parallel);
+    }
+
+    public Matrix multInto(Matrix Y, Matrix dst, boolean parallel) {
+        dst.lu = null;
+        Matrix X = this;
+        if (X.C != Y.R || dst.R != X.R || dst.C != Y.C)
+            throw new RuntimeException("Illegal matrix dimensions. " + X.dims() + " " + Y.dims() + " " + dst.dims());
+        dst.fill(0);
+        gemm(X, Y, dst, parallel);
+        return dst;
+    }
+
+    // dst = X * v, reading only the columns of X where v is non-zero
+    public Matrix multInto(SparseVector v, Matrix dst) {
+        dst.lu = null;
+        if (C != v.size || dst.R != R || dst.C != 1)
+            throw new RuntimeException("Illegal matrix dimensions. " + dims() + " " + v.dims() + " " + dst.dims());
+        int[] idx = v.indices;
+        for (int r = 0; r < R; r++) {
+            int x = index(r, 0);
+            double sum = 0;
+            if (data != null && v.values == null) {
+                for (int k = 0; k < idx.length; k++)
+                    sum += data[x + idx[k]];
+            }
+            else {
+                for (int k = 0; k < idx.length; k++)
+                    sum += at(x + idx[k]) * v.value(k);
+            }
+            dst.put(dst.index(r, 0), sum);
+        }
+        return dst;
+    }
+
+    // dst = X^T * Y, without materialising the transpose
+    public Matrix transposeMultInto(Matrix Y, Matrix dst) {
+        dst.lu = null;
+        Matrix X = this;
+        if (X.R != Y.R || dst.R != X.C || dst.C != Y.C)
+            throw new RuntimeException("Illegal matrix dimensions. " + X.dims() + "^T " + Y.dims() + " " + dst.dims());
+        dst.fill(0);
+        if (X.data != null && Y.data != null && dst.data != null) {
+            // Vector case: dst += Y(k) * (row k of X), one axpy per row
+            if (Y.C == 1 && dst.isContiguous()) {
+                for (int k = 0; k < X.R; k++)
+                    axpy(Y.data[Y.index(k, 0)], X.data, X.index(k, 0), dst.data, dst.offset, X.C);
+                return dst;
+            }
+            // Row k of X scatters into every row of dst, so walk X row by row,
+            // feeding each row of Y into 4 rows of dst at once
+            for (int k = 0; k < X.R; k++) {
+                int x = X.index(k, 0), y = Y.index(k, 0);
+                int r = 0;
+                if (SIMD) {
+                    for (; r + 3 < X.C; r += 4) {
+                        int z0 = dst.index(r, 0), z1 = z0 + dst.stride, z2 = z1 + dst.stride, z3 = z2 + dst.stride;
+                        VectorKernels.axpy4(X.data[x + r], X.data[x + r + 1], X.data[x + r + 2], X.data[x + r + 3],
+                            Y.data, y, dst.data, z0, z1, z2, z3, Y.C);
+                    }
+                }
+                for (; r < X.C; r++)
+                    axpy(X.data[x + r], Y.data, y, dst.data, dst.index(r, 0), Y.C);
+            }
+        }
+        else if (X.fdata != null && Y.fdata != null && dst.fdata != null) {
+            if (Y.C == 1 && dst.isContiguous()) {
+                for (int k = 0; k < X.R; k++)
+                    axpy(Y.fdata[Y.index(k, 0)], X.fdata, X.index(k, 0), dst.fdata, dst.offset, X.C);
+                return dst;
+            }
+            for (int k = 0; k < X.R; k++) {
+                int x = X.index(k, 0), y = Y.index(k, 0);
+                int r = 0;
+                if (SIMD) {
+                    for (; r + 3 < X.C; r += 4) {
+                        int z0 = dst.index(r, 0), z1 = z0 + dst.stride, z2 = z1 + dst.stride, z3 = z2 + dst.stride;
+                        VectorKernels.axpy4(X.fdata[x + r], X.fdata[x + r + 1], X.fdata[x + r + 2], X.fdata[x + r + 3],
+                            Y.fdata, y, dst.fdata, z0, z1, z2, z3, Y.C);
+                    }
+                }
+                for (; r < X.C; r++)
+                    axpy(X.fdata[x + r], Y.fdata, y, dst.fdata, dst.index(r, 0), Y.C);
+            }
+        }
+        else {
+            // Mixed precision or off-heap operands
+            for (int k = 0; k < X.R; k++)
+                for (int r = 0; r < X.C; r++)
+                    for (int c = 0; c < Y.C; c++)
+                        dst.put(dst.index(r, c), dst.at(dst.index(r, c)) + X.at(X.index(k, r)) * Y.at(Y.index(k, c)));
+        }
+        return dst;
+    }
+
+    // dst = X^T
+    public Matrix transposeInto(Matrix dst) {
+        dst.lu = null;
+        if (dst.R != C || dst.C != R)
+            throw new RuntimeException("Illegal matrix dimensions. " + dims() + "^T " + dst.dims());
+        for (int r = 0; r < R; r++) {
+            int x = index(r, 0);
+            if (data != null && dst.data != null) {
+                for (int c = 0; c < C; c++)
+                    dst.data[dst.index(c, r)] = data[x + c];
+            }
+            else {
+                for (int c = 0; c < C; c++)
+                    dst.put(dst.index(c, r), at(x + c));
+            }
+        }
+        return dst;
+    }
+
+    // dst = X * S, for S given as its sparse columns
+    public Matrix multInto(SparseVector[] columns, Matrix dst) {
+        dst.lu = null;
+        if (dst.R != R || dst.C != columns.length)
+            throw new RuntimeException("Illegal matrix dimensions. " + dims() + " (" + C + ", " + columns.length + ") " + dst.dims());
+        for (int j = 0; j < columns.length; j++) {
+            SparseVector v = columns[j];
+            if (v.size != C)
+                throw new RuntimeException("Illegal matrix dimensions. " + dims() + " " + v.dims());
+            int[] idx = v.indices;
+            for (int r = 0; r < R; r++) {
+                int x = index(r, 0);
+                double sum = 0;
+                for (int k = 0; k < idx.length; k++)
+                    sum += at(x + idx[k]) * v.value(k);
+                dst.put(dst.index(r, j), sum);
+            }
+        }
+        return dst;
+    }
+
+    // dst = X * S^T, for S given as its sparse columns; only the columns of dst where some S(:, j) is non-zero get written to
+    public Matrix multTransposeInto(SparseVector[] columns, Matrix dst) {
+        dst.lu = null;
+        if (C != columns.length || dst.R != R)
+            throw new RuntimeException("Illegal matrix dimensions. " + dims() + " (" + C + ", " + columns.length + ")^T " + dst.dims());
+        dst.fill(0);
+        for (int j = 0; j < columns.length; j++) {
+            SparseVector v = columns[j];
+            if (v.size != dst.C)
+                throw new RuntimeException("Illegal matrix dimensions. " + dst.dims() + " " + v.dims());
+            int[] idx = v.indices;
+            for (int r = 0; r < R; r++) {
+                double a = at(index(r, j));
+                int z = dst.index(r, 0);
+                for (int k = 0; k < idx.length; k++)
+                    dst.put(z + idx[k], dst.at(z + idx[k]) + a * v.value(k));
+            }
+        }
+        return dst;
+    }
+
+    // this(:, c) += v for every column c, e.g. adding a bias to a whole batch of activations
+    public Matrix addToColumns(Matrix v) {
+        lu = null;
+        if (v.R != R || v.C != 1)
+            throw new RuntimeException("Illegal matrix dimensions. " + dims() + " " + v.dims());
+        for (int r = 0; r < R; r++) {
+            int x = index(r, 0);
+            double b = v.at(v.index(r, 0));
+            if (data != null) {
+                for (int c = 0; c < C; c++)
+                    data[x + c] += b;
+            }
+            else if (fdata != null) {
+                float fb = (float)b;
+                for (int c = 0; c < C; c++)
+                    fdata[x + c] += fb;
+            }
+            else {
+                for (int c = 0; c < C; c++)
+                    put(x + c, at(x + c) + b);
+            }
+        }
+        return this;
+    }
+
+    // dst(r) = Σ_c this(r, c), summed in column order
+    public Matrix rowSumsInto(Matrix dst) {
+        dst.lu = null;
+        if (dst.R != R || dst.C != 1)
+            throw new RuntimeException("Illegal matrix dimensions. " + dims() + " " + dst.dims());
+        for (int r = 0; r < R; r++) {
+            int x = index(r, 0);
+            if (fdata != null) {
+                float sum = 0;
+                for (int c = 0; c < C; c++)
+                    sum += fdata[x + c];
+                dst.put(dst.index(r, 0), sum);
+                continue;
+            }
+            double sum = 0;
+            for (int c = 0; c < C; c++)
+                sum += at(x + c);
+            dst.put(dst.index(r, 0), sum);
+        }
+        return dst;
+    }
+
+    //===== ELEMENT-WISE DISPATCH =====//
+    // Every element-wise in-place op is `this (op)= Y`: run through the array kernels when both operands
+    // share a heap precision, element by element otherwise (mixed precision, or either one off-heap)
+    private static final int COPY = 0, ADD = 1, SUB = 2, MUL = 3, STEP = 4, AXPY = 5, SCALE = 6, FILL = 7, MAX = 8;
+
+    private Matrix zipInPlace(Matrix Y, int op, double a) {
+        lu = null;
+        checkSameDims(Y);
+        boolean doubles = data != null && Y.data != null;
+        if (!doubles && (fdata == null || Y.fdata == null))
+            return zipInPlaceGeneric(Y, op, a);
+        if (isContiguous() && Y.isContiguous()) {
+            zipKernel(Y, op, a, offset, Y.offset, R * C, doubles);
+            return this;
+        }
+        for (int r = 0; r < R; r++)
+            zipKernel(Y, op, a, index(r, 0), Y.index(r, 0), C, doubles);
+        return this;
+    }
+
+    private void zipKernel(Matrix Y, int op, double a, int x, int y, int n, boolean doubles) {
+        if (doubles) {
+            switch (op) {
+                case COPY:  System.arraycopy(Y.data, y, data, x, n);    break;
+                case ADD:   add(data, x, Y.data, y, n);                 break;
+                case SUB:   sub(data, x, Y.data, y, n);                 break;
+                case MUL:   mul(data, x, Y.data, y, n);                 break;
+                case STEP:  mulStep(data, x, Y.data, y, n);             break;
+                case AXPY:  axpy(a, Y.data, y, data, x, n);             break;
+                case SCALE: scale(a, data, x, n);                       break;
+                case FILL:  java.util.Arrays.fill(data, x, x + n, a);   break;
+                case MAX:   max(Y.data, y, a, data, x, n);              break;
+            }
+            return;
+        }
+        float af = (float)a;
+        switch (op) {
+            case COPY:  System.arraycopy(Y.fdata, y, fdata, x, n);  break;
+            case ADD:   add(fdata, x, Y.fdata, y, n);               break;
+            case SUB:   sub(fdata, x, Y.fdata, y, n);               break;
+            case MUL:   mul(fdata, x, Y.fdata, y, n);               break;
+            case STEP:  mulStep(fdata, x, Y.fdata, y, n);           break;
+            case AXPY:  axpy(af, Y.fdata, y, fdata, x, n);          break;
+            case SCALE: scale(af, fdata, x, n);                     break;
+            case FILL:  java.util.Arrays.fill(fdata, x, x + n, af); break;
+            case MAX:   max(Y.fdata, y, af, fdata, x, n);           break;
+        }
+    }
+
+    private Matrix zipInPlaceGeneric(Matrix Y, int op, double a) {
+        for (int r = 0; r < R; r++) {
+            int x = index(r, 0), y = Y.index(r, 0);
+            for (int c = 0; c < C; c++) {
+                double v = at(x + c);
+                double w = Y.at(y + c);
+                switch (op) {
+                    case COPY:  v = w;                  break;
+                    case ADD:   v += w;                 break;
+                    case SUB:   v -= w;                 break;
+                    case MUL:   v *= w;                 break;
+                    case STEP:  v *= w > 0 ? 1 : 0;     break;
+                    case AXPY:  v += a * w;             break;
+                    case SCALE: v = a * v;              break;
+                    case FILL:  v = a;                  break;
+                    case MAX:   v = Math.max(a, w);     break;
+                }
+                put(x + c, v);
+            }
+        }
+        return this;
+    }
+
+    //===== KERNELS =====//
+    // Primitives over a contiguous run of n elements, dispatching to VectorKernels when SIMD is enabled
+
+    private static void add(double[] x, int xi, double[] y, int yi, int n) {
+        if (SIMD) { VectorKernels.add(x, xi, y, yi, n); return; }
+        for (int i = 0; i < n; i++)
+            x[xi + i] += y[yi + i];
+    }
+
+    private static void sub(double[] x, int xi, double[] y, int yi, int n) {
+        if (SIMD) { VectorKernels.sub(x, xi, y, yi, n); return; }
+        for (int i = 0; i < n; i++)
+            x[xi + i] -= y[yi + i];
+    }
+
+    private static void mul(double[] x, int xi, double[] y, int yi, int n) {
+        if (SIMD) { VectorKernels.mul(x, xi, y, yi, n); return; }
+        for (int i = 0; i < n; i++)
+            x[xi + i] *= y[yi + i];
+    }
+
+    private static void scale(double k, double[] x, int xi, int n) {
+        if (SIMD) { VectorKernels.scale(k, x, xi, n); return; }
+        for (int i = 0; i < n; i++)
+            x[xi + i] = k * x[xi + i];
+    }
+
+    private static void axpy(double a, double[] x, int xi, double[] y, int yi, int n) {
+        if (SIMD) { VectorKernels.axpy(a, x, xi, y, yi, n); return; }
+        for (int i = 0; i < n; i++)
+            y[yi + i] += a * x[xi + i];
+    }
+
+    private static void max(double[] x, int xi, double floor, double[] dst, int di, int n) {
+        if (SIMD) { VectorKernels.max(x, xi, floor, dst, di, n); return; }
+        for (int i = 0; i < n; i++)
+            dst[di + i] = Math.max(floor, x[xi + i]);
+    }
+
+    private static void mulStep(double[] x, int xi, double[] z, int zi, int n) {
+        if (SIMD) { VectorKernels.mulStep(x, xi, z, zi, n); return; }
+        for (int i = 0; i < n; i++)
+            x[xi + i] *= z[zi + i] > 0 ? 1 : 0;
+    }
+
+    private static double squaredDistance(double[] x, int xi, double[] y, int yi, int n) {
+        if (SIMD) return VectorKernels.squaredDistance(x, xi, y, yi, n);
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            double d = x[xi + i] - y[yi + i];
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    // Single-precision twins of the kernels above
+
+    private static void add(float[] x, int xi, float[] y, int yi, int n) {
+        if (SIMD) { VectorKernels.add(x, xi, y, yi, n); return; }
+        for (int i = 0; i < n; i++)
+            x[xi + i] += y[yi + i];
+    }
+
+    private static void sub(float[] x, int xi, float[] y, int yi, int n) {
+        if (SIMD) { VectorKernels.sub(x, xi, y, yi, n); return; }
+        for (int i = 0; i < n; i++)
+            x[xi + i] -= y[yi + i];
+    }
+
+    private static void mul(float[] x, int xi, float[] y, int yi, int n) {
+        if (SIMD) { VectorKernels.mul(x, xi, y, yi, n); return; }
+        for (int i = 0; i < n; i++)
+            x[xi + i] *= y[yi + i];
+    }
+
+    private static void scale(float k, float[] x, int xi, int n) {
+        if (SIMD) { VectorKernels.scale(k, x, xi, n); return; }
+        for (int i = 0; i < n; i++)
+            x[xi + i] = k * x[xi + i];
+    }
+
+    private static void axpy(float a, float[] x, int xi, float[] y, int yi, int n) {
+        if (SIMD) { VectorKernels.axpy(a, x, xi, y, yi, n); return; }
+        for (int i = 0; i < n; i++)
+            y[yi + i] += a * x[xi + i];
+    }
+
+    private static void max(float[] x, int xi, float floor, float[] dst, int di, int n) {
+        if (SIMD) { VectorKernels.max(x, xi, floor, dst, di, n); return; }
+        for (int i = 0; i < n; i++)
+            dst[di + i] = Math.max(floor, x[xi + i]);
+    }
+
+    private static void mulStep(float[] x, int xi, float[] z, int zi, int n) {
+        if (SIMD) { VectorKernels.mulStep(x, xi, z, zi, n); return; }
+        for (int i = 0; i < n; i++)
+            x[xi + i] *= z[zi + i] > 0 ? 1 : 0;
+    }
+
+    private static double squaredDistance(float[] x, int xi, float[] y, int yi, int n) {
+        if (SIMD) return VectorKernels.squaredDistance(x, xi, y, yi, n);
+        float sum = 0;
+        for (int i = 0; i < n; i++) {
+            float d = x[xi + i] - y[yi + i];
+            sum += d * d;
+        }
+        return sum;
     }
 
     // x = A^-1 b, assuming A is square and has full rank
+    // b may hold several right-hand sides, one per column
     public Matrix solve(Matrix rhs) {
-        if (R != C || rhs.R != C || rhs.C != 1)
+        if (R != C || rhs.R != C)
             throw new RuntimeException("Illegal matrix dimensions.");
+        return lu().solve(rhs);
+    }
+
+    // LU factorisation of this matrix, computed on first use and reused until the matrix is written to
+    // (writes made behind Matrix's back, e.g. to a READ_WRITE mapped file, aren't noticed)
+    public LUDecomposition lu() {
+        LUDecomposition res = lu;
+        if (res == null) {
+            lu = res = new LUDecomposition(this);
+        }
+        return res;
+    }
 
-        // create copies of the data
-        Matrix A = new Matrix(this);
-        Matrix b = new Matrix(rhs);
+    // PA = LU via Gaussian elimination with partial pivoting
+    public static final class LUDecomposition {
+        public final int N;
+        private final double[] lu;  // L below the diagonal (with an implied unit diagonal), U on and above it
+        private final int[] swaps;  // Row c was swapped with row swaps[c] at step c
 
-        // Gaussian elimination with partial pivoting
-        for (int c = 0; c < C; c++) {
+        public LUDecomposition(Matrix A) {
+            if (A.R != A.C)
+                throw new RuntimeException("Illegal matrix dimensions.");
+            N = A.R;
+            lu = new Matrix(A).data;
+            swaps = new int[N];
+            double[] a = lu;
+
+            for (int c = 0; c < N; c++) {
+
+                // find pivot row and swap
+                int max = c;
+                for (int c2 = c + 1; c2 < N; c2++)
+                    if (Math.abs(a[c2 * N + c]) > Math.abs(a[max * N + c]))
+                        max = c2;
+                swaps[c] = max;
+                swapRows(a, N, c, max);
+
+                // singular
+                double pivot = a[c * N + c];
+                if (pivot == 0.0)
+                    throw new RuntimeException("Matrix is singular.");
 
-            // find pivot row and swap
-            int max = c;
-            for (int c2 = c + 1; c2 < C; c2++)
-                if (Math.abs(A.data[c2][c]) > Math.abs(A.data[max][c]))
-                    max = c2;
-            A.swap(c, max);
-            b.swap(c, max);
-
-            // singular
-            if (A.data[c][c] == 0.0)
-                throw new RuntimeException("Matrix is singular.");
-
-            // pivot within b
-            for (int j = c + 1; j < C; j++)
-                b.data[j][0] -= b.data[c][0] * A.data[j][c] / A.data[c][c];
-
-            // pivot within A
-            for (int j = c + 1; j < C; j++) {
-                double m = A.data[j][c] / A.data[c][c];
-                for (int k = c + 1; k < C; k++) {
-                    A.data[j][k] -= A.data[c][k] * m;
+                // eliminate below the pivot, keeping the multipliers as L
+                for (int j = c + 1; j < N; j++) {
+                    double m = a[j * N + c] / pivot;
+                    for (int k = c + 1; k < N; k++) {
+                        a[j * N + k] -= a[c * N + k] * m;
+                    }
+                    a[j * N + c] = m;
                 }
-                A.data[j][c] = 0.0;
             }
         }
 
-        // back substitution
-        Matrix x = new Matrix(C, 1);
-        for (int j = C - 1; j >= 0; j--) {
-            double t = 0.0;
-            for (int k = j + 1; k < C; k++)
-                t += A.data[j][k] * x.data[k][0];
-            x.data[j][0] = (b.data[j][0] - t) / A.data[j][j];
+        public Matrix solve(Matrix rhs) {
+            return solveInPlace(new Matrix(rhs));
         }
-        return x;
 
+        // Overwrites b (N x k) with A^-1 b
+        public Matrix solveInPlace(Matrix b) {
+            if (b.R != N)
+                throw new RuntimeException("Illegal matrix dimensions.");
+            if (b.data == null)
+                return b.copyFrom(solveInPlace(new Matrix(b)));
+            b.lu = null;
+            double[] a = lu;
+            int K = b.C;
+
+            // b = Pb
+            for (int c = 0; c < N; c++)
+                b.swap(c, swaps[c]);
+
+            // forward substitution, Ly = b
+            for (int c = 0; c < N; c++) {
+                int bc = b.index(c, 0);
+                for (int j = c + 1; j < N; j++)
+                    axpy(-a[j * N + c], b.data, bc, b.data, b.index(j, 0), K);
+            }
+
+            // back substitution, Ux = y
+            for (int j = N - 1; j >= 0; j--) {
+                int bj = b.index(j, 0);
+                for (int k = j + 1; k < N; k++)
+                    axpy(-a[j * N + k], b.data, b.index(k, 0), b.data, bj, K);
+                double pivot = a[j * N + j];
+                for (int c = 0; c < K; c++)
+                    b.data[bj + c] /= pivot;
+            }
+            return b;
+        }
+
+        private static void swapRows(double[] a, int N, int i, int j) {
+            if (i == j) return;
+            for (int c = 0; c < N; c++) {
+                double temp = a[i * N + c];
+                a[i * N + c] = a[j * N + c];
+                a[j * N + c] = temp;
+            }
+        }
     }
 
     // Returns a RCPair the row and column of the maximum value
     public RCPair argMax() {
-        RCPair res = new RCPair(-1, -1);
+        int maxR = -1;
+        int maxC = -1;
         double maxVal = Double.NEGATIVE_INFINITY;
 
-        for (int r = 0; r < R; r++)
+        for (int r = 0; r < R; r++) {
+            int row = index(r, 0);
             for (int c = 0; c < C; c++)
-                if (data[r][c] > maxVal) {
-                    maxVal = data[r][c];
-                    res = new RCPair(r, c);
+                if (at(row + c) > maxVal) {
+                    maxVal = at(row + c);
+                    maxR = r;
+                    maxC = c;
                 }
-        return res;
+        }
+        return new RCPair(maxR, maxC);
     }
 
     public double get(int r, int c) {
-        return data[r][c];
+        return at(index(r, c));
     }
 ;
     public String toString() {
         String res = "";
         for (int r = 0; r < R; r++) {
             for (int c = 0; c < C; c++)
-                res += String.format("%9.4f ", data[r][c]);
+                res += String.format("%9.4f ", get(r, c));
             res += "\n";
         }
         return res;
@@ -246,4 +1210,4 @@ final public class Matrix {
             return ((RCPair)other).r == r && ((RCPair)other).c == c;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,316 @@
+import java.util.stream.IntStream;
+
+// int8 inference engine for a trained ANN, quantized per layer after training:
+//   weights symmetrically, W ≈ weightScale * qW with qW in [-127, 127] (zero point 0)
+//   inputs asymmetrically, a ≈ inputScale * (qa - inputZeroPoint) with qa in [-128, 127], over the range of values
+//   seen at that layer while feeding a calibration set through the original network
+// A layer's pre-activations are integer dot products Σ qW (qa - inputZeroPoint) plus an int32 bias, accumulated one input
+// at a time into an int32 vector over all neurons (inputs that are exactly 0, e.g. every ReLU that didn't fire, are skipped)
+// then scaled back to double for the activation; its output is requantized for the next layer, and the last layer's stays double
+// A bias too big to leave the accumulator room for a full dot product is rejected rather than clamped (it would overflow)
+// Weights take 1 byte instead of 8 (4 in a FLOAT network); the network is a snapshot, later training doesn't reach it
+
+public class QuantizedANN {
+    final Layer[] layers;
+    final int inputs, outputs;
+    private final Buffers buffers; // For predict(); every parallel predictBatch() chunk gets its own
+
+    // calibration should look like the inputs the engine will see, e.g. the training split
+    QuantizedANN(ANN ann, TrainingData[] calibration) {
+        if (calibration.length == 0)
+            throw new IllegalArgumentException("Need at least one calibration instance");
+        int numLayers = ann.layers.length;
+        inputs = ann.layers[0].weights.C;
+        outputs = ann.layers[numLayers - 1].weights.R;
+
+        //===== COPY OUT THE TRAINED PARAMETERS =====//
+        double[][] weights = new double[numLayers][];
+        double[][] biases = new double[numLayers][];
+        for (int l = 0; l < numLayers; l++) {
+            Matrix W = ann.layers[l].weights, b = ann.layers[l].biases;
+            weights[l] = new double[W.R * W.C];
+            biases[l] = new double[W.R];
+            for (int r = 0; r < W.R; r++) {
+                for (int c = 0; c < W.C; c++) weights[l][r * W.C + c] = W.get(r, c);
+                biases[l][r] = b.get(r, 0);
+            }
+        }
+
+        //===== CALIBRATE =====//
+        // Range of every layer's input over the calibration set, in double like the original network
+        double[] min = new double[numLayers], max = new double[numLayers];
+        double[][] a = new double[numLayers + 1][];
+        a[0] = new double[inputs];
+        for (int l = 0; l < numLayers; l++) a[l + 1] = new double[ann.layers[l].weights.R];
+        for (TrainingData instance : calibration) {
+            readInput(instance, a[0], 0);
+            for (int l = 0; l < numLayers; l++) {
+                int n = a[l].length;
+                for (int j = 0; j < n; j++) {
+                    min[l] = Math.min(min[l], a[l][j]);
+                    max[l] = Math.max(max[l], a[l][j]);
+                }
+                for (int i = 0; i < a[l + 1].length; i++) {
+                    double z = biases[l][i];
+                    for (int j = 0; j < n; j++) z += weights[l][i * n + j] * a[l][j];
+                    a[l + 1][i] = z;
+                }
+                ann.layers[l].activation.apply(a[l + 1], a[l + 1]);
+            }
+        }
+
+        layers = new Layer[numLayers];
+        for (int l = 0; l < numLayers; l++) {
+            layers[l] = new Layer(weights[l], biases[l], ann.layers[l].weights.C, min[l], max[l], ann.layers[l].activation);
+        }
+        buffers = new Buffers();
+    }
+
+    static class Layer {
+        final int inputs, neurons;
+        final byte[] weights; // [input * neurons + neuron], so each input's weights are one contiguous run
+        final int[] biases;   // round(b / accumulatorScale)
+        final double weightScale, inputScale;
+        final int inputZeroPoint;
+        private final double inverseInputScale;
+        final double accumulatorScale; // weightScale * inputScale, the value of one unit of the int32 accumulator
+        final ANN.Activation activation;
+
+        // weights are row-major, [neuron * inputs + input], like Matrix
+        // [inputMin, inputMax] is widened to include 0, so that 0 is exact and its inputs can be skipped
+        Layer(double[] weights, double[] biases, int inputs, double inputMin, double inputMax, ANN.Activation activation) {
+            this.inputs = inputs;
+            this.neurons = biases.length;
+            this.activation = activation;
+
+            double maxAbs = 0;
+            for (double w : weights) maxAbs = Math.max(maxAbs, Math.abs(w));
+            weightScale = maxAbs > 0 ? maxAbs / 127 : 1;
+            this.weights = new byte[weights.length];
+            for (int i = 0; i < neurons; i++) {
+                for (int j = 0; j < inputs; j++) {
+                    this.weights[j * neurons + i] = (byte)Math.max(-127, Math.min(127, Math.rint(weights[i * inputs + j] / weightScale)));
+                }
+            }
+
+            inputMin = Math.min(0, inputMin);
+            inputMax = Math.max(0, inputMax);
+            inputScale = inputMax > inputMin ? (inputMax - inputMin) / 255 : 1;
+            inputZeroPoint = (int)Math.max(-128, Math.min(127, Math.rint(-128 - inputMin / inputScale)));
+            inverseInputScale = 1 / inputScale;
+
+            accumulatorScale = weightScale * inputScale;
+            // Every product is at most 127 * 255 in magnitude, so the bias must leave room for `inputs` of them in an int
+            long maxBias = Integer.MAX_VALUE - (long)inputs * 127 * 255;
+            if (maxBias < 0)
+                throw new IllegalArgumentException("Too many inputs (" + inputs + ") for an int32 accumulator");
+            this.biases = new int[neurons];
+            for (int i = 0; i < neurons; i++) {
+                double bias = Math.rint(biases[i] / accumulatorScale);
+                if (Math.abs(bias) > maxBias)
+                    throw new IllegalArgumentException("Bias " + biases[i] + " is " + bias + " accumulator units at scale "
+                        + accumulatorScale + ", more than the int32 accumulator has room for; calibrate on a wider range");
+                this.biases[i] = (int)bias;
+            }
+        }
+
+        // qa - inputZeroPoint for an input a, which is what multiplies the weights (so 0 exactly when a rounds to 0)
+        int quantize(double a) {
+            return (int)Math.max(-128, Math.min(127, Math.rint(a * inverseInputScale) + inputZeroPoint)) - inputZeroPoint;
+        }
+    }
+
+    // Instances fed forward side by side by predictBatch(), so every widened run of weights is used GROUP times per load
+    static final int GROUP = 4;
+
+    // Per-thread scratch space for up to GROUP instances: the double inputs, each layer's int32 accumulators and each
+    // layer's double outputs, all [instance * width + i]
+    private class Buffers {
+        final double[] input = new double[GROUP * inputs];
+        final int[][] accumulators = new int[layers.length][];
+        final double[][] activations = new double[layers.length][];
+
+        Buffers() {
+            for (int l = 0; l < layers.length; l++) {
+                accumulators[l] = new int[GROUP * layers[l].neurons];
+                activations[l] = new double[GROUP * layers[l].neurons];
+            }
+        }
+    }
+
+    //===== INFERENCE =====//
+    // Same contract as ANN.predict(TrainingData): a column vector copy of the output layer's activations
+    Matrix predict(TrainingData instance) {
+        return Matrix.columnVector(java.util.Arrays.copyOf(feedForward(instance, buffers), outputs));
+    }
+
+    // Index of the largest output, without allocating
+    int predictClass(TrainingData instance) {
+        return argMax(feedForward(instance, buffers), 0, outputs);
+    }
+
+    ANN.Predictions predictBatch(TrainingData[] instances) {
+        return predictBatch(instances, false);
+    }
+
+    // With `parallel`, chunks of ANN.PREDICT_CHUNK instances are spread across a parallel stream
+    ANN.Predictions predictBatch(TrainingData[] instances, boolean parallel) {
+        ANN.Predictions result = new ANN.Predictions(instances.length, outputs);
+        if (parallel) {
+            int chunks = (instances.length + ANN.PREDICT_CHUNK - 1) / ANN.PREDICT_CHUNK;
+            IntStream.range(0, chunks).parallel().forEach(c -> predictRange(instances, c * ANN.PREDICT_CHUNK,
+                Math.min(instances.length, (c + 1) * ANN.PREDICT_CHUNK), new Buffers(), result));
+        }
+        else {
+            predictRange(instances, 0, instances.length, buffers, result);
+        }
+        return result;
+    }
+
+    // Instances [from, to) into result, GROUP at a time
+    private void predictRange(TrainingData[] instances, int from, int to, Buffers b, ANN.Predictions result) {
+        for (int i = from; i < to; i += GROUP) {
+            int count = Math.min(GROUP, to - i);
+            for (int k = 0; k < count; k++) readInput(instances[i + k], b.input, k * inputs);
+            double[] output = feedForward(count, b);
+            System.arraycopy(output, 0, result.probabilities, i * outputs, count * outputs);
+            for (int k = 0; k < count; k++) result.classes[i + k] = argMax(output, k * outputs, outputs);
+        }
+    }
+
+    // Returns the last layer's buffer, with the instance's outputs first
+    private double[] feedForward(TrainingData instance, Buffers b) {
+        readInput(instance, b.input, 0);
+        return feedForward(1, b);
+    }
+
+    // Feeds the first `count` (at most GROUP) inputs in b.input forward; returns the last layer's buffer
+    private double[] feedForward(int count, Buffers b) {
+        double[] a = b.input;
+        int width = inputs;
+        for (int l = 0; l < layers.length; l++) {
+            Layer layer = layers[l];
+            int neurons = layer.neurons;
+            byte[] W = layer.weights;
+            int[] acc = b.accumulators[l];
+            for (int k = 0; k < count; k++) {
+                System.arraycopy(layer.biases, 0, acc, k * neurons, neurons);
+            }
+
+            if (count == GROUP) {
+                for (int j = 0; j < width; j++) {
+                    int q0 = layer.quantize(a[j]), q1 = layer.quantize(a[width + j]);
+                    int q2 = layer.quantize(a[2 * width + j]), q3 = layer.quantize(a[3 * width + j]);
+                    if ((q0 | q1 | q2 | q3) != 0) axpy4(q0, q1, q2, q3, W, j * neurons, acc, 0, neurons, 2 * neurons, 3 * neurons, neurons);
+                }
+            }
+            else {
+                for (int k = 0; k < count; k++) {
+                    for (int j = 0; j < width; j++) {
+                        int q = layer.quantize(a[k * width + j]);
+                        if (q != 0) axpy(q, W, j * neurons, acc, k * neurons, neurons);
+                    }
+                }
+            }
+
+            double[] z = b.activations[l];
+            for (int i = 0; i < count * neurons; i++) {
+                z[i] = acc[i] * layer.accumulatorScale;
+            }
+            for (int k = 0; k < count; k++) {
+                layer.activation.apply(z, k * neurons, z, k * neurons, neurons);
+            }
+            a = z;
+            width = neurons;
+        }
+        return a;
+    }
+
+    // The dense input features, in whichever encoding the first layer takes (like ANN.predict), into input[offset...]
+    private void readInput(TrainingData instance, double[] input, int offset) {
+        SparseVector sparse = instance.sparseInputData();
+        if (sparse != null && sparse.size == inputs) {
+            java.util.Arrays.fill(input, offset, offset + inputs, 0);
+            for (int k = 0; k < sparse.nnz(); k++) input[offset + sparse.index(k)] = sparse.value(k);
+        }
+        else {
+            Matrix dense = instance.inputData();
+            for (int j = 0; j < inputs; j++) input[offset + j] = dense.get(j, 0);
+        }
+    }
+
+    // First index of the largest of values[from, from + n), like Matrix.argMax
+    private static int argMax(double[] values, int from, int n) {
+        int best = 0;
+        for (int k = 1; k < n; k++) {
+            if (values[from + k] > values[from + best]) best = k;
+        }
+        return best;
+    }
+
+    // y += a * x; through VectorKernels when Matrix.SIMD is enabled
+    private static void axpy(int a, byte[] x, int xi, int[] y, int yi, int n) {
+        if (Matrix.SIMD) { VectorKernels.axpy(a, x, xi, y, yi, n); return; }
+        for (int i = 0; i < n; i++)
+            y[yi + i] += a * x[xi + i];
+    }
+
+    // y0..y3 += a0..a3 * x
+    private static void axpy4(int a0, int a1, int a2, int a3, byte[] x, int xi, int[] y, int y0, int y1, int y2, int y3, int n) {
+        if (Matrix.SIMD) { VectorKernels.axpy4(a0, a1, a2, a3, x, xi, y, y0, y1, y2, y3, n); return; }
+        for (int i = 0; i < n; i++) {
+            int b = x[xi + i];
+            y[y0 + i] += a0 * b;
+            y[y1 + i] += a1 * b;
+            y[y2 + i] += a2 * b;
+            y[y3 + i] += a3 * b;
+        }
+    }
+
+    //===== REPORTING =====//
+    // Parameter memory: int8 weights plus int32 biases
+    long bytes() {
+        long bytes = 0;
+        for (Layer layer : layers) bytes += layer.weights.length + (long)layer.biases.length * Integer.BYTES;
+        return bytes;
+    }
+
+    // Parameter memory of the original network at its precision
+    static long bytes(ANN ann) {
+        long bytes = 0;
+        int size = ann.precision == Matrix.Precision.FLOAT ? Float.BYTES : Double.BYTES;
+        for (ANN.Layer layer : ann.layers) bytes += ((long)layer.weights.R * layer.weights.C + layer.biases.R) * size;
+        return bytes;
+    }
+
+    // Accuracy drift against ann.predict() on `instances` (e.g. the test split), plus how far the outputs moved
+    void compare(ANN ann, TrainingData[] instances) {
+        int correct = 0, quantizedCorrect = 0, agree = 0;
+        double maxDiff = 0, sumDiff = 0;
+        for (TrainingData instance : instances) {
+            Matrix expected = ann.predict(instance);
+            double[] actual = feedForward(instance, buffers);
+            int actualClass = instance.outputData().argMax().r;
+            int expectedClass = expected.argMax().r;
+            int quantizedClass = argMax(actual, 0, outputs);
+
+            if (expectedClass == actualClass) correct++;
+            if (quantizedClass == actualClass) quantizedCorrect++;
+            if (quantizedClass == expectedClass) agree++;
+            for (int k = 0; k < outputs; k++) {
+                double diff = Math.abs(actual[k] - expected.get(k, 0));
+                maxDiff = Math.max(maxDiff, diff);
+                sumDiff += diff;
+            }
+        }
+        int n = instances.length;
+        double accuracy = (double)correct / n, quantizedAccuracy = (double)quantizedCorrect / n;
+
+        System.out.println("INT8 ACCURACY: " + Main.PURPLE + quantizedCorrect + "/" + n + " = " + quantizedAccuracy + Main.RESET
+            + " (ANN " + accuracy + ", drift " + (quantizedAccuracy - accuracy) + ")");
+        System.out.println("CLASS AGREEMENT: " + agree + "/" + n);
+        System.out.println("OUTPUT ERROR: max " + maxDiff + ", mean " + sumDiff / ((double)n * outputs));
+        System.out.println("PARAMETER MEMORY: " + bytes() + "B (ANN " + bytes(ann) + "B, "
+            + String.format("%.1fx", (double)bytes(ann) / bytes()) + " smaller)");
+    }
+}
@@ -0,0 +1,37 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Seeded provider of independent random streams, so every component (and every thread or task within one) draws from
+// its own generator instead of all of them contending on one shared Random, and parallel runs stay reproducible
+//   stream(component, index) is a pure function of (seed, component, index), whatever else has been drawn
+//   stream(component) hands out that component's streams 0, 1, 2, ... in call order, for single-threaded setup code
+// Within a component, split() a stream in a fixed order (or take stream(component, i) for task i) to give each thread its own
+// SplittableRandom isn't thread-safe: a stream must only be used by one thread at a time
+
+public class RandomStreams {
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    final long seed;
+    private final ConcurrentHashMap<String, AtomicLong> handedOut = new ConcurrentHashMap<>();
+
+    RandomStreams(long seed) {
+        this.seed = seed;
+    }
+
+    SplittableRandom stream(String component, long index) {
+        long h = mix(seed + GOLDEN_GAMMA * component.hashCode());
+        return new SplittableRandom(mix(h + GOLDEN_GAMMA * (index + 1)));
+    }
+
+    SplittableRandom stream(String component) {
+        return stream(component, handedOut.computeIfAbsent(component, c -> new AtomicLong()).getAndIncrement());
+    }
+
+    // Stafford's Mix13 (SplittableRandom's own finalizer), so neighbouring seeds and indices land far apart
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
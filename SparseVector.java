@@ -0,0 +1,52 @@
+// Sparse column vector: only the non-zero entries are stored, as indices in ascending order
+// `values` holds the matching entries, or is null for binary (e.g. one-hot) vectors where every stored entry is 1
+// Immutable; Matrix.mult/multInto/addOuterProduct take it directly and only touch the stored entries
+
+final public class SparseVector {
+    public final int size;
+    final int[] indices;
+    final double[] values;
+
+    // Binary vector with 1's at the given indices
+    public SparseVector(int size, int[] indices) {
+        this(size, indices, null);
+    }
+
+    public SparseVector(int size, int[] indices, double[] values) {
+        if (values != null && values.length != indices.length)
+            throw new RuntimeException("Illegal sparse vector. " + indices.length + " indices, " + values.length + " values");
+        for (int k = 0; k < indices.length; k++) {
+            if (indices[k] < 0 || indices[k] >= size || (k > 0 && indices[k] <= indices[k - 1]))
+                throw new RuntimeException("Illegal sparse vector. Indices must be ascending and within [0, " + size + ")");
+        }
+        this.size = size;
+        this.indices = indices.clone();
+        this.values = values == null ? null : values.clone();
+    }
+
+    // Number of stored (non-zero) entries
+    public int nnz() {
+        return indices.length;
+    }
+
+    // Index of the k'th stored entry
+    public int index(int k) {
+        return indices[k];
+    }
+
+    // Value of the k'th stored entry
+    public double value(int k) {
+        return values == null ? 1 : values[k];
+    }
+
+    public Matrix toDense() {
+        Matrix A = new Matrix(size, 1);
+        for (int k = 0; k < indices.length; k++)
+            A.set(indices[k], 0, value(k));
+        return A;
+    }
+
+    public String dims() {
+        return "(" + size + ", 1)";
+    }
+}
@@ -0,0 +1,261 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+// Hyperparameter sweep for the ANN: trains every candidate of a grid (or a random sample of a search space) on the same
+// train/test split, concurrently on a work-stealing pool of at most `threads` workers, and ranks them by test accuracy
+// Spec: ';'-separated key=values, where values are ','-separated alternatives or a lo..hi range (random search only)
+//   layers=5-3-5,8,16-8   Hidden layer sizes; the input and output sizes come from the data
+//   lr=0.01,0.05          lr=0.001..0.1 samples log-uniformly
+//   batch=10,20           batch=5..50 samples uniformly
+//   epochs=50,200         epochs=20..500 samples uniformly
+//   samples=N             Random search over N candidates instead of the full grid
+//   threads=N             Pool size (default: available processors)
+// Keys left out keep Main's single-network defaults
+// Each candidate trains like Main's network (train2(): one batch per epoch, stopping early at acceptableCost, with the
+// optimizer given to run()), from its own stream ("sweep" stream i for candidate i), so the results don't depend on scheduling
+
+public class Sweep {
+    List<int[]> layers = List.of(new int[] {5, 3, 5});
+    Dimension learningRates = new Dimension(0.01);
+    Dimension batchSizes = new Dimension(20);
+    Dimension epochs = new Dimension(50);
+    int samples = 0; // 0 means the full grid
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    // Throws IllegalArgumentException naming the part of the spec it couldn't use
+    Sweep(String spec) {
+        for (String entry : spec.split(";")) {
+            if (entry.isBlank()) continue;
+            String[] kv = entry.split("=", 2);
+            if (kv.length != 2) throw new IllegalArgumentException("Expected key=values: " + entry);
+            String key = kv[0].trim(), values = kv[1].trim();
+            switch (key) {
+                case "layers": layers = parseLayers(values); break;
+                case "lr": learningRates = new Dimension(values, false, true); break;
+                case "batch": batchSizes = new Dimension(values, true, false); break;
+                case "epochs": epochs = new Dimension(values, true, false); break;
+                case "samples": samples = positive(key, values); break;
+                case "threads": threads = positive(key, values); break;
+                default: throw new IllegalArgumentException("Unknown sweep key: " + key);
+            }
+        }
+        if (samples == 0 && (learningRates.range || batchSizes.range || epochs.range)) {
+            throw new IllegalArgumentException("Ranges need random search (samples=N)");
+        }
+    }
+
+    //===== SEARCH SPACE =====//
+    // Either a list of alternatives or a [lo, hi] range; integral ranges include hi
+    static class Dimension {
+        final double[] values;
+        final boolean range, integral, log;
+
+        Dimension(double value) {
+            this.values = new double[] {value};
+            this.range = false;
+            this.integral = false;
+            this.log = false;
+        }
+
+        Dimension(String spec, boolean integral, boolean log) {
+            this.integral = integral;
+            this.log = log;
+            String[] bounds = spec.split("\\.\\.", -1);
+            range = bounds.length == 2;
+            if (range) {
+                values = new double[] {parse(bounds[0]), parse(bounds[1])};
+                if (values[0] > values[1]) throw new IllegalArgumentException("Empty range: " + spec);
+            }
+            else {
+                values = Arrays.stream(spec.split(",")).mapToDouble(this::parse).toArray();
+            }
+        }
+
+        private double parse(String value) {
+            try {
+                double v = Double.parseDouble(value.trim());
+                if (!(v > 0) || (integral && v != Math.rint(v))) throw new NumberFormatException();
+                return v;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Expected a positive " + (integral ? "integer" : "number") + ": " + value);
+            }
+        }
+
+        double sample(SplittableRandom random) {
+            if (!range) return values[random.nextInt(values.length)];
+            double lo = values[0], hi = values[1];
+            if (integral) return lo + random.nextInt((int)(hi - lo) + 1);
+            if (log) return Math.exp(Math.log(lo) + random.nextDouble() * (Math.log(hi) - Math.log(lo)));
+            return lo + random.nextDouble() * (hi - lo);
+        }
+    }
+
+    private static List<int[]> parseLayers(String spec) {
+        List<int[]> result = new ArrayList<>();
+        for (String topology : spec.split(",")) {
+            try {
+                int[] hidden = Arrays.stream(topology.split("-")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+                if (Arrays.stream(hidden).anyMatch(n -> n <= 0)) throw new NumberFormatException();
+                result.add(hidden);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Expected '-'-separated positive layer sizes: " + topology);
+            }
+        }
+        return result;
+    }
+
+    private static int positive(String key, String value) {
+        try {
+            int n = Integer.parseInt(value);
+            if (n > 0) return n;
+        } catch (NumberFormatException e) {
+            // Fall through
+        }
+        throw new IllegalArgumentException("Expected a positive integer for " + key + ": " + value);
+    }
+
+    //===== CANDIDATES =====//
+    static class Candidate {
+        final int[] hidden;
+        final double learningRate;
+        final int batchSize, maxEpochs;
+        SplittableRandom random;
+        // Results
+        int epochsRun;
+        double seconds, accuracy, cost;
+
+        Candidate(int[] hidden, double learningRate, int batchSize, int maxEpochs) {
+            this.hidden = hidden;
+            this.learningRate = learningRate;
+            this.batchSize = batchSize;
+            this.maxEpochs = maxEpochs;
+        }
+
+        // Training instances per second
+        double throughput() {
+            return (double)epochsRun * batchSize / seconds;
+        }
+    }
+
+    // Every combination, layers outermost
+    List<Candidate> grid() {
+        List<Candidate> result = new ArrayList<>();
+        for (int[] hidden : layers)
+            for (double lr : learningRates.values)
+                for (double batch : batchSizes.values)
+                    for (double epoch : epochs.values)
+                        result.add(new Candidate(hidden, lr, (int)batch, (int)epoch));
+        return result;
+    }
+
+    List<Candidate> sample(SplittableRandom random) {
+        List<Candidate> result = new ArrayList<>();
+        for (int i = 0; i < samples; i++) {
+            int[] hidden = layers.get(random.nextInt(layers.size()));
+            result.add(new Candidate(hidden, learningRates.sample(random), (int)batchSizes.sample(random), (int)epochs.sample(random)));
+        }
+        return result;
+    }
+
+    //===== RUN =====//
+    // Returns the candidates, best first; optimizer is one of ANN.OPTIMIZERS
+    List<Candidate> run(List<TrainingData> data, long seed, Matrix.Precision precision, boolean oneHot, String optimizer) {
+        RandomStreams streams = new RandomStreams(seed);
+        List<Candidate> candidates = samples > 0 ? sample(streams.stream("sweep.search")) : grid();
+        for (int i = 0; i < candidates.size(); i++) {
+            candidates.get(i).random = streams.stream("sweep", i);
+        }
+
+        // One shared split, so the candidates are compared on the same test set
+        List<TrainingData> shuffled = new ArrayList<>(data);
+        SplittableRandom split = streams.stream("sweep.split");
+        for (int i = shuffled.size() - 1; i > 0; i--) {
+            Collections.swap(shuffled, i, split.nextInt(i + 1));
+        }
+        int trainingSize = (int)(shuffled.size() * 0.8);
+        TrainingData[] training = shuffled.subList(0, trainingSize).toArray(new TrainingData[0]);
+        TrainingData[] testing = shuffled.subList(trainingSize, shuffled.size()).toArray(new TrainingData[0]);
+        int inputSize = oneHot ? CancerData.ONE_HOT_SIZE : 9;
+
+        ForkJoinPool pool = new ForkJoinPool(Math.min(threads, candidates.size()));
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Candidate c : candidates) {
+                futures.add(pool.submit(() -> train(c, inputSize, precision, optimizer, training, testing)));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Sweep failed", e);
+        } finally {
+            pool.shutdown();
+        }
+        double wall = (System.nanoTime() - start) / 1e9;
+
+        List<Candidate> ranked = new ArrayList<>(candidates);
+        ranked.sort(Comparator.comparingDouble((Candidate c) -> -c.accuracy).thenComparingDouble(c -> c.cost));
+        print(ranked, wall);
+        return ranked;
+    }
+
+    private static void train(Candidate c, int inputSize, Matrix.Precision precision, String optimizer,
+            TrainingData[] training, TrainingData[] testing) {
+        int[] sizes = new int[c.hidden.length + 2];
+        sizes[0] = inputSize;
+        System.arraycopy(c.hidden, 0, sizes, 1, c.hidden.length);
+        sizes[sizes.length - 1] = 2;
+
+        ANN ann = new ANN(sizes, precision, c.random);
+        ann.training = training;
+        ann.testing = testing;
+        ann.learningRate = c.learningRate;
+        ann.batchSize = c.batchSize;
+        ann.maxEpochs = c.maxEpochs;
+        ann.setOptimizer(ann.newOptimizer(optimizer));
+
+        // Same loop as train2(), counting the epochs it runs
+        long start = System.nanoTime();
+        double avgCost = Double.MAX_VALUE;
+        for (c.epochsRun = 0; c.epochsRun < ann.maxEpochs && avgCost > ann.acceptableCost; c.epochsRun++) {
+            avgCost = Math.abs(ann.trainBatch());
+        }
+        c.seconds = (System.nanoTime() - start) / 1e9;
+
+        ANN.Predictions predictions = ann.predictBatch(testing);
+        int correct = 0;
+        double cost = 0;
+        for (int i = 0; i < testing.length; i++) {
+            Matrix actual = testing[i].outputData();
+            if (predictions.classes[i] == actual.argMax().r) correct++;
+            cost += ann.costFunction.f(predictions.output(i), actual);
+        }
+        c.accuracy = (double)correct / testing.length;
+        c.cost = cost / testing.length;
+    }
+
+    private void print(List<Candidate> ranked, double wall) {
+        double busy = 0;
+        for (Candidate c : ranked) busy += c.seconds;
+        System.out.println("SWEEP: " + Main.BLUE + ranked.size() + Main.RESET + " candidates ("
+            + (samples > 0 ? "random search" : "grid") + ") on " + Main.BLUE + Math.min(threads, ranked.size()) + Main.RESET
+            + " threads in " + Main.PURPLE + String.format("%.0f ms", wall * 1000) + Main.RESET
+            + String.format(" (%.2fx the training time of one thread)", busy / wall));
+        System.out.println("RANK\tLAYERS\t\tLR\tBATCH\tEPOCHS\tACCURACY\tAVG COST\tTIME (ms)\tTHROUGHPUT (inst/s)");
+        System.out.println(Main.RED + "----\t------\t\t--\t-----\t------\t--------\t--------\t---------\t-------------------" + Main.RESET);
+        for (int i = 0; i < ranked.size(); i++) {
+            Candidate c = ranked.get(i);
+            String layers = Arrays.toString(c.hidden).replaceAll("[\\[\\] ]", "").replace(',', '-');
+            System.out.printf("%d\t%-12s\t%.4g\t%d\t%d/%d\t%s%.4f%s\t\t%.4f\t\t%.1f\t\t%.0f%n", i + 1, layers, c.learningRate,
+                c.batchSize, c.epochsRun, c.maxEpochs, Main.PURPLE, c.accuracy, Main.RESET, c.cost, c.seconds * 1000, c.throughput());
+        }
+    }
+}
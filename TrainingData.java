@@ -1,14 +1,14 @@
-import java.util.Random;
-
 interface TrainingData {
     public int[] inputEnums();     // Array of enum values
     public Matrix inputData();     // Column vector of values
+    public SparseVector sparseInputData(); // One-hot encoded input, one block of binary features per attribute
     public Matrix outputData();    // Column vector one-hot encoded
     public String toString();
 }
 
 class Utils {
-    public static Random gen;
+    // Streams for whatever isn't handed one explicitly (default constructors, Matrix.random(R, C), benchmarks)
+    static RandomStreams rng = new RandomStreams(0xD3ADB33F);
 
     static int enumerate(String[] arr, String val) {
         for (int i = 0; i < arr.length; i++) {
@@ -27,7 +27,6 @@ class Utils {
 }
 
 class CancerData implements TrainingData {
-    CancerData() {}
     CancerData (String[] parts) {
         this.type =         Utils.enumerate(categories[0], parts[0]);
         this.age =          Utils.enumerate(categories[1], parts[1]);
@@ -39,10 +38,9 @@ class CancerData implements TrainingData {
         this.breast =       Utils.enumerate(categories[7], parts[7]);
         this.breast_quad =  Utils.enumerate(categories[8], parts[8]);
         this.irradiat =     Utils.enumerate(categories[9], parts[9]);
-    }
 
-    @Override public int[] inputEnums() {
-        return new int[] {
+        // Built once, up front, into final fields, so every thread sees them fully built without any locking
+        this.inputData = Matrix.columnVector(new double[] {
             this.age,
             this.menopause,
             this.tumor_size,
@@ -52,11 +50,25 @@ class CancerData implements TrainingData {
             this.breast,
             this.breast_quad,
             this.irradiat
-        };
+        });
+
+        double[] values = new double[] { 0.0, 0.0 };
+        values[this.type] = 1.0; // One-hot encoding
+        this.outputData = Matrix.columnVector(values);
+
+        // Exactly one 1 per attribute, at its offset in the concatenated one-hot blocks
+        int[] enums = inputEnums();
+        int[] indices = new int[enums.length];
+        int offset = 0;
+        for (int i = 0; i < enums.length; i++) {
+            indices[i] = offset + enums[i];
+            offset += categories[i + 1].length;
+        }
+        this.sparseInputData = new SparseVector(ONE_HOT_SIZE, indices);
     }
 
-    @Override public Matrix inputData() {
-        return Matrix.columnVector(new double[] {
+    @Override public int[] inputEnums() {
+        return new int[] {
             this.age,
             this.menopause,
             this.tumor_size,
@@ -66,25 +78,36 @@ class CancerData implements TrainingData {
             this.breast,
             this.breast_quad,
             this.irradiat
-        });
+        };
+    }
+
+    // The vectors are shared by every caller (and thread), so callers must treat them as read-only
+    private final Matrix inputData;
+    private final Matrix outputData;
+    private final SparseVector sparseInputData;
+
+    @Override public Matrix inputData() {
+        return inputData;
+    }
+
+    @Override public SparseVector sparseInputData() {
+        return sparseInputData;
     }
 
     @Override public Matrix outputData() {
-        double[] values = new double[] { 0.0, 0.0 };
-        values[this.type] = 1.0; // One-hot encoding
-        return Matrix.columnVector(values);
+        return outputData;
     }
 
-    int type;
-    int age;
-    int menopause;
-    int tumor_size;
-    int inv_nodes;
-    int node_caps;
-    int deg_malig;
-    int breast;
-    int breast_quad;
-    int irradiat;
+    final int type;
+    final int age;
+    final int menopause;
+    final int tumor_size;
+    final int inv_nodes;
+    final int node_caps;
+    final int deg_malig;
+    final int breast;
+    final int breast_quad;
+    final int irradiat;
 
     public static final String[][] categories = new String[][] {
         new String[] {"no-recurrence-events", "recurrence-events"},
@@ -102,5 +125,7 @@ class CancerData implements TrainingData {
     @Override public String toString() {
         return "[" + type + ", " + age + ", " + menopause + ", " + tumor_size + ", " + inv_nodes + ", " + node_caps + ", " + deg_malig + ", " + breast + ", " + breast_quad + ", " + irradiat + "]";
     }
+    // Width of sparseInputData(): the total number of categories over all input attributes
+    public static final int ONE_HOT_SIZE = java.util.Arrays.stream(categories).skip(1).mapToInt(c -> c.length).sum();
     public static final String[] labels = new String[] { "age", "menopause", "tumor_size", "inv_nodes", "node_caps", "deg_malig", "breast", "breast_quad", "irradiat" };
 }
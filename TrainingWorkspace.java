@@ -0,0 +1,99 @@
+// Every buffer ANN.trainEpoch() works in, sized once from the layer sizes, batch size and worker count,
+// then reused for every epoch so that steady-state training doesn't allocate
+// The batch is split into contiguous shards, one per worker; each shard has its own matrices so shards can run side by side
+
+public class TrainingWorkspace {
+    final int batchSize;
+    final TrainingData[] batch;
+    final double[] costs; // Cost of each instance in the batch
+    final SparseVector[] sparseInputs; // Used instead of the stacked dense inputs when the first layer takes sparse inputs
+    boolean sparse; // Whether this epoch's batch goes in through sparseInputs
+    final Shard[] shards;
+
+    // layerSizes includes the input layer, like the ANN constructor's
+    TrainingWorkspace(int[] layerSizes, int batchSize, int workers, Matrix.Precision precision) {
+        this.batchSize = batchSize;
+        batch = new TrainingData[batchSize];
+        costs = new double[batchSize];
+        sparseInputs = new SparseVector[batchSize];
+
+        int numShards = shardCount(batchSize, workers);
+        shards = new Shard[numShards];
+        for (int s = 0; s < numShards; s++) {
+            shards[s] = new Shard(layerSizes, s * batchSize / numShards, (s + 1) * batchSize / numShards, precision);
+        }
+    }
+
+    // At most one shard per instance
+    static int shardCount(int batchSize, int workers) {
+        return Math.min(workers, batchSize);
+    }
+
+    boolean fits(int batchSize, int workers) {
+        return this.batchSize == batchSize && shards.length == shardCount(batchSize, workers);
+    }
+
+    // Instances [from, to) of the batch; column i of every matrix belongs to batch[from + i]
+    // avgDeltas/avgDeltaActivations hold the shard's gradient *sums*, which trainEpoch() averages once they are reduced
+    static class Shard {
+        final int from, to;
+        final Matrix[] aBatch; // matrices[layer] (layer 0 is the input layer); z = W a + b is overwritten by a = σ(z)
+        final Matrix[] deltaBatch;
+        final Matrix[] aBatchT; // aBatch transposed, so the weight gradient δ * A^T is a plain blocked GEMM
+        final Matrix targetBatch; // Stays double, like the training data
+        final SparseVector[] sparseInputs;
+        final Matrix[] inputColumns, targetColumns, outputColumns, outputDeltaColumns; // Column views of the matrices above
+        final Matrix[] avgDeltas; // [layer - 1], like ANN.layers
+        final Matrix[] avgDeltaActivations;
+
+        Shard(int[] layerSizes, int from, int to, Matrix.Precision precision) {
+            this.from = from;
+            this.to = to;
+            int size = to - from;
+            int numLayers = layerSizes.length;
+            aBatch = new Matrix[numLayers];
+            deltaBatch = new Matrix[numLayers];
+            aBatchT = new Matrix[numLayers];
+            sparseInputs = new SparseVector[size];
+            avgDeltas = new Matrix[numLayers - 1];
+            avgDeltaActivations = new Matrix[numLayers - 1];
+
+            aBatch[0] = new Matrix(layerSizes[0], size, precision);
+            aBatchT[0] = new Matrix(size, layerSizes[0], precision);
+            for (int vl = 1; vl < numLayers; vl++) {
+                int neurons = layerSizes[vl];
+                aBatch[vl] = new Matrix(neurons, size, precision);
+                deltaBatch[vl] = new Matrix(neurons, size, precision);
+                if (vl < numLayers - 1) {
+                    aBatchT[vl] = new Matrix(size, neurons, precision);
+                }
+                avgDeltas[vl-1] = new Matrix(neurons, 1, precision);
+                avgDeltaActivations[vl-1] = new Matrix(neurons, layerSizes[vl-1], precision);
+            }
+            targetBatch = new Matrix(layerSizes[numLayers-1], size);
+
+            inputColumns = new Matrix[size];
+            targetColumns = new Matrix[size];
+            outputColumns = new Matrix[size];
+            outputDeltaColumns = new Matrix[size];
+            for (int i = 0; i < size; i++) {
+                inputColumns[i] = aBatch[0].column(i);
+                targetColumns[i] = targetBatch.column(i);
+                outputColumns[i] = aBatch[numLayers-1].column(i);
+                outputDeltaColumns[i] = deltaBatch[numLayers-1].column(i);
+            }
+        }
+
+        int size() {
+            return to - from;
+        }
+
+        // this += other, for the gradient sums
+        void addGradients(Shard other) {
+            for (int l = 0; l < avgDeltas.length; l++) {
+                avgDeltas[l].addInPlace(other.avgDeltas[l]);
+                avgDeltaActivations[l].addInPlace(other.avgDeltaActivations[l]);
+            }
+        }
+    }
+}
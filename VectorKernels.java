@@ -0,0 +1,288 @@
+// SIMD kernels for Matrix, built on the incubating Vector API (jdk.incubator.vector)
+// Only touched when Matrix.SIMD is true, so the JVM never links this class if the module is absent
+// Every kernel works on a contiguous run of n doubles (or floats) starting at the given offsets
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+final class VectorKernels {
+    static final VectorSpecies<Double> S = DoubleVector.SPECIES_PREFERRED;
+    static final VectorSpecies<Float> F = FloatVector.SPECIES_PREFERRED;
+    // int8 kernels load as many bytes as an int vector has lanes, and widen them to ints
+    static final VectorSpecies<Integer> I = IntVector.SPECIES_PREFERRED;
+    static final VectorSpecies<Byte> B = VectorSpecies.of(byte.class, VectorShape.forBitSize(I.length() * Byte.SIZE));
+
+    private VectorKernels() {}
+
+    // x += y
+    static void add(double[] x, int xi, double[] y, int yi, int n) {
+        int i = 0;
+        for (; i < S.loopBound(n); i += S.length())
+            DoubleVector.fromArray(S, x, xi + i).add(DoubleVector.fromArray(S, y, yi + i)).intoArray(x, xi + i);
+        for (; i < n; i++)
+            x[xi + i] += y[yi + i];
+    }
+
+    // x -= y
+    static void sub(double[] x, int xi, double[] y, int yi, int n) {
+        int i = 0;
+        for (; i < S.loopBound(n); i += S.length())
+            DoubleVector.fromArray(S, x, xi + i).sub(DoubleVector.fromArray(S, y, yi + i)).intoArray(x, xi + i);
+        for (; i < n; i++)
+            x[xi + i] -= y[yi + i];
+    }
+
+    // x *= y
+    static void mul(double[] x, int xi, double[] y, int yi, int n) {
+        int i = 0;
+        for (; i < S.loopBound(n); i += S.length())
+            DoubleVector.fromArray(S, x, xi + i).mul(DoubleVector.fromArray(S, y, yi + i)).intoArray(x, xi + i);
+        for (; i < n; i++)
+            x[xi + i] *= y[yi + i];
+    }
+
+    // x = k * x
+    static void scale(double k, double[] x, int xi, int n) {
+        int i = 0;
+        for (; i < S.loopBound(n); i += S.length())
+            DoubleVector.broadcast(S, k).mul(DoubleVector.fromArray(S, x, xi + i)).intoArray(x, xi + i);
+        for (; i < n; i++)
+            x[xi + i] = k * x[xi + i];
+    }
+
+    // y += a * x (multiply then add, never fused, so it rounds exactly like the scalar loop)
+    static void axpy(double a, double[] x, int xi, double[] y, int yi, int n) {
+        int i = 0;
+        for (; i < S.loopBound(n); i += S.length())
+            DoubleVector.fromArray(S, y, yi + i).add(DoubleVector.fromArray(S, x, xi + i).mul(a)).intoArray(y, yi + i);
+        for (; i < n; i++)
+            y[yi + i] += a * x[xi + i];
+    }
+
+    // dst = max(x, floor), with Math.max semantics
+    static void max(double[] x, int xi, double floor, double[] dst, int di, int n) {
+        int i = 0;
+        for (; i < S.loopBound(n); i += S.length())
+            DoubleVector.fromArray(S, x, xi + i).max(floor).intoArray(dst, di + i);
+        for (; i < n; i++)
+            dst[di + i] = Math.max(floor, x[xi + i]);
+    }
+
+    // x *= (z > 0 ? 1 : 0)
+    static void mulStep(double[] x, int xi, double[] z, int zi, int n) {
+        DoubleVector ones = DoubleVector.broadcast(S, 1);
+        int i = 0;
+        for (; i < S.loopBound(n); i += S.length()) {
+            VectorMask<Double> positive = DoubleVector.fromArray(S, z, zi + i).compare(VectorOperators.GT, 0);
+            DoubleVector step = DoubleVector.zero(S).blend(ones, positive);
+            DoubleVector.fromArray(S, x, xi + i).mul(step).intoArray(x, xi + i);
+        }
+        for (; i < n; i++)
+            x[xi + i] *= z[zi + i] > 0 ? 1 : 0;
+    }
+
+    // Σ x*y, accumulated lane-wise and reduced at the end
+    static double dot(double[] x, int xi, double[] y, int yi, int n) {
+        DoubleVector acc = DoubleVector.zero(S);
+        int i = 0;
+        for (; i < S.loopBound(n); i += S.length())
+            acc = acc.add(DoubleVector.fromArray(S, x, xi + i).mul(DoubleVector.fromArray(S, y, yi + i)));
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++)
+            sum += x[xi + i] * y[yi + i];
+        return sum;
+    }
+
+    // Σ (x-y)^2, accumulated lane-wise and reduced at the end
+    static double squaredDistance(double[] x, int xi, double[] y, int yi, int n) {
+        DoubleVector acc = DoubleVector.zero(S);
+        int i = 0;
+        for (; i < S.loopBound(n); i += S.length()) {
+            DoubleVector d = DoubleVector.fromArray(S, x, xi + i).sub(DoubleVector.fromArray(S, y, yi + i));
+            acc = acc.add(d.mul(d));
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) {
+            double d = x[xi + i] - y[yi + i];
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    // z0..z3 += a0..a3 * y, the inner loop of the 4-row GEMM block
+    static void axpy4(double a0, double a1, double a2, double a3, double[] y, int yi,
+                      double[] z, int z0, int z1, int z2, int z3, int n) {
+        int j = 0;
+        for (; j < S.loopBound(n); j += S.length()) {
+            DoubleVector b = DoubleVector.fromArray(S, y, yi + j);
+            DoubleVector.fromArray(S, z, z0 + j).add(b.mul(a0)).intoArray(z, z0 + j);
+            DoubleVector.fromArray(S, z, z1 + j).add(b.mul(a1)).intoArray(z, z1 + j);
+            DoubleVector.fromArray(S, z, z2 + j).add(b.mul(a2)).intoArray(z, z2 + j);
+            DoubleVector.fromArray(S, z, z3 + j).add(b.mul(a3)).intoArray(z, z3 + j);
+        }
+        for (; j < n; j++) {
+            double b = y[yi + j];
+            z[z0 + j] += a0 * b;
+            z[z1 + j] += a1 * b;
+            z[z2 + j] += a2 * b;
+            z[z3 + j] += a3 * b;
+        }
+    }
+
+    //===== SINGLE PRECISION =====//
+    // Same kernels over float[], with twice as many lanes per vector
+
+    // x += y
+    static void add(float[] x, int xi, float[] y, int yi, int n) {
+        int i = 0;
+        for (; i < F.loopBound(n); i += F.length())
+            FloatVector.fromArray(F, x, xi + i).add(FloatVector.fromArray(F, y, yi + i)).intoArray(x, xi + i);
+        for (; i < n; i++)
+            x[xi + i] += y[yi + i];
+    }
+
+    // x -= y
+    static void sub(float[] x, int xi, float[] y, int yi, int n) {
+        int i = 0;
+        for (; i < F.loopBound(n); i += F.length())
+            FloatVector.fromArray(F, x, xi + i).sub(FloatVector.fromArray(F, y, yi + i)).intoArray(x, xi + i);
+        for (; i < n; i++)
+            x[xi + i] -= y[yi + i];
+    }
+
+    // x *= y
+    static void mul(float[] x, int xi, float[] y, int yi, int n) {
+        int i = 0;
+        for (; i < F.loopBound(n); i += F.length())
+            FloatVector.fromArray(F, x, xi + i).mul(FloatVector.fromArray(F, y, yi + i)).intoArray(x, xi + i);
+        for (; i < n; i++)
+            x[xi + i] *= y[yi + i];
+    }
+
+    // x = k * x
+    static void scale(float k, float[] x, int xi, int n) {
+        int i = 0;
+        for (; i < F.loopBound(n); i += F.length())
+            FloatVector.broadcast(F, k).mul(FloatVector.fromArray(F, x, xi + i)).intoArray(x, xi + i);
+        for (; i < n; i++)
+            x[xi + i] = k * x[xi + i];
+    }
+
+    // y += a * x (multiply then add, never fused, so it rounds exactly like the scalar loop)
+    static void axpy(float a, float[] x, int xi, float[] y, int yi, int n) {
+        int i = 0;
+        for (; i < F.loopBound(n); i += F.length())
+            FloatVector.fromArray(F, y, yi + i).add(FloatVector.fromArray(F, x, xi + i).mul(a)).intoArray(y, yi + i);
+        for (; i < n; i++)
+            y[yi + i] += a * x[xi + i];
+    }
+
+    // dst = max(x, floor), with Math.max semantics
+    static void max(float[] x, int xi, float floor, float[] dst, int di, int n) {
+        int i = 0;
+        for (; i < F.loopBound(n); i += F.length())
+            FloatVector.fromArray(F, x, xi + i).max(floor).intoArray(dst, di + i);
+        for (; i < n; i++)
+            dst[di + i] = Math.max(floor, x[xi + i]);
+    }
+
+    // x *= (z > 0 ? 1 : 0)
+    static void mulStep(float[] x, int xi, float[] z, int zi, int n) {
+        FloatVector ones = FloatVector.broadcast(F, 1f);
+        int i = 0;
+        for (; i < F.loopBound(n); i += F.length()) {
+            VectorMask<Float> positive = FloatVector.fromArray(F, z, zi + i).compare(VectorOperators.GT, 0f);
+            FloatVector step = FloatVector.zero(F).blend(ones, positive);
+            FloatVector.fromArray(F, x, xi + i).mul(step).intoArray(x, xi + i);
+        }
+        for (; i < n; i++)
+            x[xi + i] *= z[zi + i] > 0 ? 1 : 0;
+    }
+
+    // Σ x*y, accumulated lane-wise and reduced at the end
+    static float dot(float[] x, int xi, float[] y, int yi, int n) {
+        FloatVector acc = FloatVector.zero(F);
+        int i = 0;
+        for (; i < F.loopBound(n); i += F.length())
+            acc = acc.add(FloatVector.fromArray(F, x, xi + i).mul(FloatVector.fromArray(F, y, yi + i)));
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++)
+            sum += x[xi + i] * y[yi + i];
+        return sum;
+    }
+
+    // Σ (x-y)^2, accumulated lane-wise and reduced at the end
+    static float squaredDistance(float[] x, int xi, float[] y, int yi, int n) {
+        FloatVector acc = FloatVector.zero(F);
+        int i = 0;
+        for (; i < F.loopBound(n); i += F.length()) {
+            FloatVector d = FloatVector.fromArray(F, x, xi + i).sub(FloatVector.fromArray(F, y, yi + i));
+            acc = acc.add(d.mul(d));
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) {
+            float d = x[xi + i] - y[yi + i];
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    // z0..z3 += a0..a3 * y, the inner loop of the 4-row GEMM block
+    static void axpy4(float a0, float a1, float a2, float a3, float[] y, int yi,
+                      float[] z, int z0, int z1, int z2, int z3, int n) {
+        int j = 0;
+        for (; j < F.loopBound(n); j += F.length()) {
+            FloatVector b = FloatVector.fromArray(F, y, yi + j);
+            FloatVector.fromArray(F, z, z0 + j).add(b.mul(a0)).intoArray(z, z0 + j);
+            FloatVector.fromArray(F, z, z1 + j).add(b.mul(a1)).intoArray(z, z1 + j);
+            FloatVector.fromArray(F, z, z2 + j).add(b.mul(a2)).intoArray(z, z2 + j);
+            FloatVector.fromArray(F, z, z3 + j).add(b.mul(a3)).intoArray(z, z3 + j);
+        }
+        for (; j < n; j++) {
+            float b = y[yi + j];
+            z[z0 + j] += a0 * b;
+            z[z1 + j] += a1 * b;
+            z[z2 + j] += a2 * b;
+            z[z3 + j] += a3 * b;
+        }
+    }
+
+    //===== INT8 =====//
+    // For QuantizedANN; integer sums are exact, so these match the scalar loops bit for bit
+
+    // y += a * x, with x widened from int8 to int
+    static void axpy(int a, byte[] x, int xi, int[] y, int yi, int n) {
+        int i = 0;
+        for (; i < B.loopBound(n); i += B.length()) {
+            IntVector b = (IntVector)ByteVector.fromArray(B, x, xi + i).convertShape(VectorOperators.B2I, I, 0);
+            IntVector.fromArray(I, y, yi + i).add(b.mul(a)).intoArray(y, yi + i);
+        }
+        for (; i < n; i++)
+            y[yi + i] += a * x[xi + i];
+    }
+
+    // y0..y3 += a0..a3 * x, widening each run of x once for all four
+    static void axpy4(int a0, int a1, int a2, int a3, byte[] x, int xi, int[] y, int y0, int y1, int y2, int y3, int n) {
+        int i = 0;
+        for (; i < B.loopBound(n); i += B.length()) {
+            IntVector b = (IntVector)ByteVector.fromArray(B, x, xi + i).convertShape(VectorOperators.B2I, I, 0);
+            IntVector.fromArray(I, y, y0 + i).add(b.mul(a0)).intoArray(y, y0 + i);
+            IntVector.fromArray(I, y, y1 + i).add(b.mul(a1)).intoArray(y, y1 + i);
+            IntVector.fromArray(I, y, y2 + i).add(b.mul(a2)).intoArray(y, y2 + i);
+            IntVector.fromArray(I, y, y3 + i).add(b.mul(a3)).intoArray(y, y3 + i);
+        }
+        for (; i < n; i++) {
+            int b = x[xi + i];
+            y[y0 + i] += a0 * b;
+            y[y1 + i] += a1 * b;
+            y[y2 + i] += a2 * b;
+            y[y3 + i] += a3 * b;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+// Forward + backward cost of each ANN.Activation on a 128 x 512 batch (128 neurons, 512 instances):
+// the per-scalar path (mapInto f, then df recomputed from z) against the array forms with the derivative taken from the cached outputs
+// Usage: java -cp .:bench ActivationBenchmark
+
+public class ActivationBenchmark {
+    static final int NEURONS = 128;
+    static final int BATCH = 512;
+
+    public static void main(String[] args) {
+        Utils.rng = new RandomStreams(0xD3ADB33F);
+        ANN ann = new ANN(new int[] {1, 1});
+        ANN.Activation[] activations = {ann.new Sigmoid(), ann.new Tanh(), ann.new ReLU(), ann.new LeakyReLU(), ann.new Softmax()};
+
+        Matrix z = Matrix.random(NEURONS, BATCH).addInPlace(Matrix.ones(NEURONS, BATCH).scaleInPlace(-0.5)).scaleInPlace(8);
+        Matrix a = new Matrix(NEURONS, BATCH);
+        Matrix d0 = Matrix.random(NEURONS, BATCH);
+        Matrix d = new Matrix(NEURONS, BATCH); // Reset from d0 every run, so repeated products don't shrink it into denormals
+        double elements = (double)NEURONS * BATCH;
+
+        System.out.println("ACTIVATION\tPER-SCALAR (ns/elem)\tFROM OUTPUT (ns/elem)\tSPEEDUP");
+        for (ANN.Activation act : activations) {
+            double perScalar = MatrixBenchmark.time(() -> {
+                if (act instanceof ANN.ElementwiseActivation) z.mapInto((ANN.ElementwiseActivation)act, a);
+                else act.apply(z, a); // Softmax has no scalar form
+                d.copyFrom(d0);
+                act.multDerivative(d, z);
+            });
+            double fromOutput = MatrixBenchmark.time(() -> {
+                act.apply(z, a);
+                d.copyFrom(d0);
+                act.multDerivativeFromOutput(d, a);
+            });
+            System.out.printf("%-10s\t%-12.2f\t\t%-12.2f\t\t%.2fx%n", act.getClass().getSimpleName(),
+                perScalar * 1e9 / elements, fromOutput * 1e9 / elements, perScalar / fromOutput);
+        }
+    }
+}
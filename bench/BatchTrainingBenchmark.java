@@ -0,0 +1,116 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Training throughput of ANN.trainEpoch (the whole batch stacked into one matrix per layer) against the
+// previous per-instance loop (one matrix-vector product and one outer product per instance per layer)
+// Usage: java -cp .:bench BatchTrainingBenchmark
+
+public class BatchTrainingBenchmark {
+    static final int[] TOPOLOGY = {64, 128, 128, 2};
+    static final int[] BATCH_SIZES = {1, 8, 32, 128, 512};
+
+    public static void main(String[] args) {
+        Utils.rng = new RandomStreams(0xD3ADB33F);
+        List<TrainingData> data = new ArrayList<>();
+        for (int i = 0; i < 2048; i++) {
+            data.add(new Synthetic(TOPOLOGY[0]));
+        }
+
+        System.out.println("BATCH\tPER-INSTANCE (samples/s)\tBATCHED (samples/s)\tSPEEDUP");
+        for (int batchSize : BATCH_SIZES) {
+            ANN ann = new ANN(TOPOLOGY);
+            ann.setData(new ArrayList<>(data), 1.0);
+            ann.batchSize = batchSize;
+            ann.learningRate = 0; // Keep the weights fixed, so every epoch does the same work
+            PerInstance reference = new PerInstance(ann);
+
+            double perInstance = batchSize / MatrixBenchmark.time(reference::trainEpoch);
+            double batched = batchSize / MatrixBenchmark.time(ann::trainEpoch);
+
+            System.out.printf("%d\t%.0f\t\t\t%.0f\t\t\t%.2fx%n", batchSize, perInstance, batched, batched / perInstance);
+        }
+    }
+
+    // The pre-batching implementation of ANN.trainEpoch, with its buffers allocated up front
+    static class PerInstance {
+        final ANN ann;
+        final TrainingData[] batch;
+        final Matrix[][] z, a, deltas;
+        final Matrix[] avgDeltas, avgDeltaActivations;
+
+        PerInstance(ANN ann) {
+            this.ann = ann;
+            int numLayers = ann.layers.length + 1;
+            batch = new TrainingData[ann.batchSize];
+            z = new Matrix[numLayers][ann.batchSize];
+            a = new Matrix[numLayers][ann.batchSize];
+            deltas = new Matrix[numLayers][ann.batchSize];
+            avgDeltas = new Matrix[ann.layers.length];
+            avgDeltaActivations = new Matrix[ann.layers.length];
+            for (int l = 0; l < ann.layers.length; l++) {
+                int neurons = ann.layers[l].weights.R;
+                for (int i = 0; i < ann.batchSize; i++) {
+                    z[l + 1][i] = new Matrix(neurons, 1);
+                    a[l + 1][i] = new Matrix(neurons, 1);
+                    deltas[l + 1][i] = new Matrix(neurons, 1);
+                }
+                avgDeltas[l] = new Matrix(neurons, 1);
+                avgDeltaActivations[l] = new Matrix(neurons, ann.layers[l].weights.C);
+            }
+        }
+
+        double trainEpoch() {
+            ANN.Layer[] layers = ann.layers;
+            ann.getRandomBatch(batch);
+            int out = layers.length;
+            double avgCost = 0;
+            for (int i = 0; i < batch.length; i++) {
+                a[0][i] = batch[i].inputData();
+                for (int l = 0; l < layers.length; l++) {
+                    layers[l].weights.multInto(a[l][i], z[l + 1][i]).addInPlace(layers[l].biases);
+                    layers[l].activation.apply(z[l + 1][i], a[l + 1][i]);
+                }
+                avgCost += ann.costFunction.f(a[out][i], batch[i].outputData());
+                ann.costFunction.outputErrorInto(a[out][i], batch[i].outputData(), deltas[out][i]);
+                layers[out - 1].activation.multDerivative(deltas[out][i], z[out][i]);
+            }
+            for (int i = 0; i < batch.length; i++) {
+                for (int l = layers.length - 2; l >= 0; l--) {
+                    layers[l + 1].weights.transposeMultInto(deltas[l + 2][i], deltas[l + 1][i]);
+                    layers[l].activation.multDerivative(deltas[l + 1][i], z[l + 1][i]);
+                }
+            }
+            for (int l = 0; l < layers.length; l++) {
+                avgDeltas[l].fill(0);
+                avgDeltaActivations[l].fill(0);
+                for (int i = 0; i < batch.length; i++) {
+                    avgDeltas[l].addInPlace(deltas[l + 1][i]);
+                    avgDeltaActivations[l].addOuterProduct(1.0, deltas[l + 1][i], a[l][i]);
+                }
+                avgDeltas[l].scaleInPlace(1.0 / batch.length);
+                avgDeltaActivations[l].scaleInPlace(1.0 / batch.length);
+            }
+            for (int l = 0; l < layers.length; l++) {
+                layers[l].weights.axpy(-ann.learningRate, avgDeltaActivations[l]);
+                layers[l].biases.axpy(-ann.learningRate, avgDeltas[l]);
+            }
+            return avgCost / batch.length;
+        }
+    }
+
+    // Random dense inputs with a random one-hot label
+    static class Synthetic implements TrainingData {
+        final Matrix input;
+        final Matrix output;
+
+        Synthetic(int features) {
+            input = Matrix.random(features, 1);
+            output = new Matrix(2, 1).set(Utils.rng.stream("labels").nextInt(2), 0, 1);
+        }
+
+        @Override public int[] inputEnums() { return new int[0]; }
+        @Override public Matrix inputData() { return input; }
+        @Override public SparseVector sparseInputData() { return null; }
+        @Override public Matrix outputData() { return output; }
+    }
+}
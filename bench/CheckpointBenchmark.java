@@ -0,0 +1,100 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// Time to save and load ANN/DecTree checkpoints against the time it takes to build (and train) the models in the first place
+// Loads map the parameters straight from the file, so their cost barely grows with the network; the predicted classes
+// of a loaded network are checked against the original's
+// Usage: java -cp .:bench CheckpointBenchmark [dataFile]
+
+public class CheckpointBenchmark {
+    static final int[][] TOPOLOGIES = {{9, 5, 3, 5, 2}, {256, 512, 512, 2}, {512, 1024, 1024, 2}};
+
+    static volatile Object sink; // Keeps results alive so the JIT can't drop the work
+
+    public static void main(String[] args) throws IOException {
+        String file = args.length > 0 ? args[0] : "data/breast-cancer.data";
+        List<TrainingData> data = Main.readCancerDataFromFile(file);
+        Path dir = Files.createTempDirectory("checkpoints");
+        Path path = dir.resolve("model");
+        Utils.rng = new RandomStreams(0xD3ADB33F);
+
+        System.out.println("MODEL\t\t\tFILE (KB)\tBUILD (ms)\tSAVE (ms)\tLOAD (ms)\tRESTORE (ms)\tCLASS MISMATCHES");
+        for (int[] topology : TOPOLOGIES) {
+            double build = MatrixBenchmark.time(() -> sink = new ANN(topology));
+            ANN ann = new ANN(topology);
+            ann.layers[ann.layers.length - 1].activation = ann.new Sigmoid(); // Spread the outputs out so argmax isn't tied at 0
+            double save = MatrixBenchmark.time(() -> io(() -> ann.saveCheckpoint(path)));
+            double load = timeLoads(() -> io(() -> sink = ANN.loadCheckpoint(path, FileChannel.MapMode.READ_ONLY)));
+            ANN target = new ANN(topology);
+            double restore = timeLoads(() -> io(() -> target.restoreCheckpoint(path, FileChannel.MapMode.READ_ONLY)));
+
+            ANN loaded = ANN.loadCheckpoint(path, FileChannel.MapMode.READ_ONLY);
+            double[][] rows = new double[1000][topology[0]];
+            java.util.SplittableRandom random = Utils.rng.stream("rows");
+            for (double[] row : rows) {
+                for (int f = 0; f < row.length; f++) row[f] = random.nextDouble() - 0.5;
+            }
+            int[] expected = ann.predictBatch(rows).classes;
+            int[] actual = loaded.predictBatch(rows).classes;
+            int mismatches = 0;
+            for (int i = 0; i < rows.length; i++) {
+                if (expected[i] != actual[i]) mismatches++;
+            }
+
+            System.out.printf("ANN %-20s\t%-8d\t%-8.3f\t%-8.3f\t%-8.3f\t%-8.3f\t%d%n", java.util.Arrays.toString(topology),
+                Files.size(path) / 1024, build * 1e3, save * 1e3, load * 1e3, restore * 1e3, mismatches);
+        }
+
+        // The trained GP tree, whose build time is the whole evolutionary run
+        GP gp = new GP();
+        gp.setData(new ArrayList<>(data), 0.8);
+        long start = System.nanoTime();
+        DecTree tree = gp.optimize();
+        double build = (System.nanoTime() - start) / 1e9;
+        double save = MatrixBenchmark.time(() -> io(() -> tree.save(path)));
+        double load = timeLoads(() -> io(() -> sink = DecTree.load(path)));
+
+        DecTree loaded = DecTree.load(path);
+        int mismatches = 0;
+        for (TrainingData instance : data) {
+            if (tree.predict(instance) != loaded.predict(instance)) mismatches++;
+        }
+        System.out.printf("DecTree (GP optimize)\t\t%-8d\t%-8.3f\t%-8.3f\t%-8.3f\t-\t\t%d%n",
+            Files.size(path) / 1024, build * 1e3, save * 1e3, load * 1e3, mismatches);
+
+        Files.delete(path);
+        Files.delete(dir);
+    }
+
+    // Best of LOAD_RUNS timed loads, collecting between them: a mapping only goes away once its buffers are collected,
+    // so MatrixBenchmark.time()'s thousands of back-to-back loads would pile up mappings faster than the heap notices
+    static final int LOAD_RUNS = 50;
+
+    static double timeLoads(Runnable load) {
+        double best = Double.MAX_VALUE;
+        for (int r = 0; r < LOAD_RUNS; r++) {
+            sink = null;
+            System.gc();
+            long start = System.nanoTime();
+            load.run();
+            best = Math.min(best, (System.nanoTime() - start) / 1e9);
+        }
+        return best;
+    }
+
+    interface IOAction {
+        void run() throws IOException;
+    }
+
+    static void io(IOAction action) {
+        try {
+            action.run();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+// Predictions/sec of a CompiledANN (topology-specialised source, compiled at runtime into a hidden class) against ANN.predict,
+// plus how long generating and compiling it takes and how far its outputs are from ANN.predict's
+//   PREDICT: ANN.predict(TrainingData), which returns a fresh Matrix
+//   COMPILED: CompiledANN.predictClass(TrainingData), which doesn't allocate
+//   RAW: CompiledANN.predict(double[], double[]) on ready-made input arrays, the generated code alone
+// Usage: java -cp .:bench CompiledPredictorBenchmark [records]
+
+public class CompiledPredictorBenchmark {
+    static final int[][] TOPOLOGIES = {{9, 5, 3, 5, 2}, {9, 16, 16, 2}, {32, 32, 32, 2}, {64, 128, 128, 2}};
+
+    static volatile Object sink; // Keeps results alive so the JIT can't drop the work
+
+    public static void main(String[] args) {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        Utils.rng = new RandomStreams(0xD3ADB33F);
+
+        System.out.println(records + " records");
+        System.out.println("TOPOLOGY\t\tUNROLLED\tCOMPILE (ms)\tPREDICT (rec/s)\tCOMPILED (rec/s)\tRAW (rec/s)\tSPEEDUP\tMAX |DIFF|\tCLASS MISMATCHES");
+        for (int[] topology : TOPOLOGIES) {
+            ANN ann = new ANN(topology);
+            ann.layers[ann.layers.length - 1].activation = ann.new Sigmoid(); // Spread the outputs out so argmax isn't tied at 0
+            TrainingData[] instances = new TrainingData[records];
+            double[][] rows = new double[records][];
+            for (int i = 0; i < records; i++) {
+                BatchTrainingBenchmark.Synthetic instance = new BatchTrainingBenchmark.Synthetic(topology[0]);
+                instance.input.addInPlace(Matrix.ones(topology[0], 1).scaleInPlace(-0.5));
+                instances[i] = instance;
+                rows[i] = new double[topology[0]];
+                for (int f = 0; f < topology[0]; f++) rows[i][f] = instance.input.get(f, 0);
+            }
+
+            long start = System.nanoTime();
+            CompiledANN compiled = new CompiledANN(ann);
+            double compileMillis = (System.nanoTime() - start) / 1e6;
+
+            double predict = records / MatrixBenchmark.time(() -> {
+                for (TrainingData t : instances) sink = ann.predict(t);
+            });
+            double compiledClass = records / MatrixBenchmark.time(() -> {
+                int sum = 0;
+                for (TrainingData t : instances) sum += compiled.predictClass(t);
+                sink = sum;
+            });
+            double[] output = new double[compiled.outputs];
+            double raw = records / MatrixBenchmark.time(() -> {
+                for (double[] row : rows) compiled.predict(row, output);
+                sink = output;
+            });
+
+            double maxDiff = 0;
+            int mismatches = 0;
+            for (TrainingData t : instances) {
+                Matrix expected = ann.predict(t), actual = compiled.predict(t);
+                for (int k = 0; k < compiled.outputs; k++) maxDiff = Math.max(maxDiff, Math.abs(expected.get(k, 0) - actual.get(k, 0)));
+                if (expected.argMax().r != compiled.predictClass(t)) mismatches++;
+            }
+
+            System.out.printf("%-20s\t%-5b\t\t%-8.1f\t%-12.0f\t%-12.0f\t\t%-12.0f\t%.2fx\t%.1e\t\t%d%n", java.util.Arrays.toString(topology),
+                compiled.unrolled, compileMillis, predict, compiledClass, raw, compiledClass / predict, maxDiff, mismatches);
+        }
+    }
+}
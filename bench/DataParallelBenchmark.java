@@ -0,0 +1,72 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Scaling curve of data-parallel ANN.trainEpoch from 1 to N workers
+// Every worker count trains twice from the same seed: the two runs must end with bit-identical weights,
+// and the weights are compared against the 1-worker run, which may only differ by floating point rounding
+// Usage: java -cp .:bench DataParallelBenchmark [maxWorkers] [batchSize]
+
+public class DataParallelBenchmark {
+    static final int[] TOPOLOGY = {64, 256, 256, 2};
+    static final int EPOCHS = 20;
+
+    public static void main(String[] args) {
+        int maxWorkers = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 512;
+        Utils.rng = new RandomStreams(0xD3ADB33F);
+        List<TrainingData> data = new ArrayList<>();
+        for (int i = 0; i < 4096; i++) {
+            data.add(new BatchTrainingBenchmark.Synthetic(TOPOLOGY[0]));
+        }
+
+        System.out.println("Batch size " + batchSize + ", " + Runtime.getRuntime().availableProcessors() + " available processors");
+        System.out.println("WORKERS\tSAMPLES/S\tSPEEDUP\tDETERMINISTIC\tMAX WEIGHT DIFF (vs 1 worker)");
+        ANN serial = null;
+        double serialRate = 0;
+        for (int workers = 1; workers <= maxWorkers; workers++) {
+            ANN ann = network(data, batchSize, workers);
+            double rate = batchSize / MatrixBenchmark.time(ann::trainEpoch);
+
+            ANN a = train(data, batchSize, workers);
+            ANN b = train(data, batchSize, workers);
+            if (workers == 1) {
+                serial = a;
+                serialRate = rate;
+            }
+            System.out.printf("%d\t%.0f\t\t%.2fx\t%s\t\t%.2e%n",
+                workers, rate, rate / serialRate, maxWeightDiff(a, b) == 0 ? "yes" : "NO", maxWeightDiff(serial, a));
+            ann.setWorkers(1); // Shuts the pool down
+        }
+    }
+
+    static ANN network(List<TrainingData> data, int batchSize, int workers) {
+        Utils.rng = new RandomStreams(42);
+        ANN ann = new ANN(TOPOLOGY);
+        ann.setData(new ArrayList<>(data), 1.0);
+        ann.batchSize = batchSize;
+        ann.setWorkers(workers);
+        return ann;
+    }
+
+    static ANN train(List<TrainingData> data, int batchSize, int workers) {
+        ANN ann = network(data, batchSize, workers);
+        for (int e = 0; e < EPOCHS; e++) {
+            ann.trainEpoch();
+        }
+        ann.setWorkers(1);
+        return ann;
+    }
+
+    static double maxWeightDiff(ANN x, ANN y) {
+        double diff = 0;
+        for (int l = 0; l < x.layers.length; l++) {
+            Matrix[] xm = {x.layers[l].weights, x.layers[l].biases};
+            Matrix[] ym = {y.layers[l].weights, y.layers[l].biases};
+            for (int m = 0; m < 2; m++)
+                for (int r = 0; r < xm[m].R; r++)
+                    for (int c = 0; c < xm[m].C; c++)
+                        diff = Math.max(diff, Math.abs(xm[m].get(r, c) - ym[m].get(r, c)));
+        }
+        return diff;
+    }
+}
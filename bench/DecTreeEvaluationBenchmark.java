@@ -0,0 +1,71 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+// Scoring random decision trees on random training batches, the way GP.evaluate() does every generation:
+//   OBJECTS: through TrainingData, as before the columnar store (inputEnums() at every node, outputData() per label)
+//   COLUMNAR: DecTree.evaluate(ColumnarData, rows), reading byte[feature][row] and byte[] labels by row id
+// Both score the same trees on the same rows, so the fitness values must match
+// Usage: java -cp .:bench DecTreeEvaluationBenchmark [trees] [dataFile]
+
+public class DecTreeEvaluationBenchmark {
+    static volatile double sink; // Keeps results alive so the JIT can't drop the work
+
+    public static void main(String[] args) {
+        int treeCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        String file = args.length > 1 ? args[1] : "data/breast-cancer.data";
+        List<TrainingData> data = Main.readCancerDataFromFile(file);
+
+        GP gp = new GP(new RandomStreams(42).stream("gp"));
+        gp.setData(new ArrayList<>(data), 0.8);
+        ColumnarData columns = gp.columns();
+        List<DecTree> trees = new ArrayList<>();
+        for (int i = 0; i < treeCount; i++) trees.add(new DecTree(gp.gen));
+        int[][] rows = new int[treeCount][];
+        SplittableRandom random = new SplittableRandom(7);
+        for (int i = 0; i < treeCount; i++) rows[i] = gp.getRandomRows(random, new int[gp.EVALUATION_BATCH_SIZE]);
+
+        double[] objectValues = new double[treeCount];
+        Runnable objects = () -> {
+            for (int i = 0; i < treeCount; i++) objectValues[i] = scoreObjects(trees.get(i), gp.training, rows[i]);
+            sink = objectValues[0];
+        };
+        Runnable columnar = () -> {
+            for (int i = 0; i < treeCount; i++) trees.get(i).evaluate(columns, rows[i]);
+            sink = trees.get(0).getValue();
+        };
+
+        double objectTime = MatrixBenchmark.time(objects);
+        double columnarTime = MatrixBenchmark.time(columnar);
+        double objectBytes = allocated(objects) / (double)treeCount;
+        double columnarBytes = allocated(columnar) / (double)treeCount;
+        int mismatches = 0;
+        for (int i = 0; i < treeCount; i++) {
+            if (objectValues[i] != trees.get(i).getValue()) mismatches++;
+        }
+
+        System.out.println(treeCount + " trees, " + gp.EVALUATION_BATCH_SIZE + " rows each");
+        System.out.println("PATH\t\tTREES/S\t\tBYTES/TREE\tSPEEDUP");
+        System.out.printf("objects\t\t%-12.0f\t%-10.0f\t1.00x%n", treeCount / objectTime, objectBytes);
+        System.out.printf("columnar\t%-12.0f\t%-10.0f\t%.2fx%n", treeCount / columnarTime, columnarBytes, objectTime / columnarTime);
+        System.out.println("Fitness mismatches: " + mismatches);
+    }
+
+    // The pre-columnar DecTree.evaluate()
+    static double scoreObjects(DecTree tree, TrainingData[] training, int[] rows) {
+        double value = 0;
+        for (int row : rows) {
+            if (tree.predict(training[row]) == training[row].outputData().get(1, 0)) value += 1.0; // Labels are exactly 0.0 or 1.0
+        }
+        return value / rows.length;
+    }
+
+    // Bytes allocated by the current thread over one run
+    static long allocated(Runnable run) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long before = threads.getCurrentThreadAllocatedBytes();
+        run.run();
+        return threads.getCurrentThreadAllocatedBytes() - before;
+    }
+}
@@ -0,0 +1,55 @@
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Function;
+
+// Compares the old boxed Function<Double, ...> element-wise paths against the primitive kernels
+// Usage: java -cp .:bench ElementwiseBenchmark
+
+public class ElementwiseBenchmark {
+    static final int[] SIZES = {9, 64, 512};
+
+    public static void main(String[] args) {
+        Utils.rng = new RandomStreams(0xD3ADB33F);
+        DoubleUnaryOperator relu = x -> Math.max(0, x);
+
+        System.out.println("OP\t\tSIZE\tBOXED (ns/elem)\tPRIMITIVE (ns/elem)\tSPEEDUP");
+        for (int n : SIZES) {
+            Matrix X = Matrix.random(n, n);
+            Matrix Y = Matrix.random(n, n);
+            Matrix dst = new Matrix(n, n);
+            double elems = (double)n * n;
+
+            report("add", n, elems,
+                () -> X.zipWith(Y, x -> y -> x + y),
+                () -> X.add(Y));
+            report("hadamard", n, elems,
+                () -> X.zipWith(Y, x -> y -> x * y),
+                () -> X.hadamard(Y));
+            report("zipWith", n, elems,
+                () -> X.zipWith(Y, x -> y -> x * y - x),
+                () -> X.zipWith(Y, (x, y) -> x * y - x));
+            report("map", n, elems,
+                () -> boxedMap(X, x -> Math.max(0, x)),
+                () -> X.map(relu));
+            report("mapInto", n, elems,
+                () -> boxedMap(X, x -> Math.max(0, x)),
+                () -> X.mapInto(relu, dst));
+        }
+    }
+
+    static void report(String op, int n, double elems, Runnable boxed, Runnable primitive) {
+        // Repeat small shapes so each timed run is long enough to measure
+        int reps = (int)Math.max(1, 1_000_000 / elems);
+        double b = MatrixBenchmark.time(() -> { for (int i = 0; i < reps; i++) boxed.run(); }) * 1e9 / (reps * elems);
+        double p = MatrixBenchmark.time(() -> { for (int i = 0; i < reps; i++) primitive.run(); }) * 1e9 / (reps * elems);
+        System.out.printf("%-8s\t%d\t%.3f\t\t%.3f\t\t\t%.2fx%n", op, n, b, p, b / p);
+    }
+
+    // The pre-primitive implementation of Matrix.map
+    static Matrix boxedMap(Matrix A, Function<Double, Double> f) {
+        Matrix res = new Matrix(A.R, A.C);
+        for (int r = 0; r < A.R; r++)
+            for (int c = 0; c < A.C; c++)
+                res.set(r, c, f.apply(A.get(r, c)));
+        return res;
+    }
+}
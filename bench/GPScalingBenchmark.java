@@ -0,0 +1,72 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Generations/sec of GP.optimize() for populations of 1k to 100k trees, against the number of fitness evaluation workers
+//   EVALUATION: GP.evaluate() alone on one random population (trees scored per second), the part that runs in parallel
+//   GENERATIONS: whole optimize() runs, which also breed and mutate the population serially
+// Every run evolves from the same seed, and the result tree is checked against the 1-worker run's (it must be identical)
+// Random trees average ~500 nodes, so 100k trees need a few GB of heap (make gpscaling passes -Xmx4g)
+// Usage: java -Xmx4g -cp .:bench GPScalingBenchmark [maxWorkers] [dataFile]
+
+public class GPScalingBenchmark {
+    static final int[] POPULATIONS = {1_000, 10_000, 100_000};
+
+    public static void main(String[] args) {
+        int maxWorkers = args.length > 0 ? Integer.parseInt(args[0]) : Math.max(4, Runtime.getRuntime().availableProcessors());
+        String file = args.length > 1 ? args[1] : "data/breast-cancer.data";
+        List<TrainingData> data = Main.readCancerDataFromFile(file);
+
+        System.out.println(Runtime.getRuntime().availableProcessors() + " available processors");
+        System.out.println("POPULATION\tGENERATIONS\tWORKERS\tEVALUATION (trees/s)\tGENERATIONS/S\tSPEEDUP\tSAME RESULT");
+        run(data, 1_000, 5, 1); // Warm up the JIT
+        for (int population : POPULATIONS) {
+            int generations = Math.max(2, 20_000 / population); // Roughly the same work per population size
+            double serial = 0;
+            String expected = null;
+            for (int workers = 1; workers <= maxWorkers; workers *= 2) {
+                double evaluation = population / timeEvaluation(data, population, workers);
+                long start = System.nanoTime();
+                String result = run(data, population, generations, workers);
+                double rate = generations / ((System.nanoTime() - start) / 1e9);
+                if (workers == 1) {
+                    serial = rate;
+                    expected = result;
+                }
+                System.out.printf("%-10d\t%-10d\t%d\t%-12.0f\t\t%-10.3f\t%.2fx\t%b%n", population, generations, workers, evaluation,
+                    rate, rate / serial, result.equals(expected));
+            }
+        }
+    }
+
+    static GP gp(List<TrainingData> data, int population, int workers) {
+        GP gp = new GP(new RandomStreams(42).stream("gp"));
+        gp.setPopulationSize(population);
+        gp.setWorkers(workers);
+        gp.setData(new ArrayList<>(data), 0.8);
+        return gp;
+    }
+
+    // Best of 3 seconds to score one random population
+    static double timeEvaluation(List<TrainingData> data, int population, int workers) {
+        GP gp = gp(data, population, workers);
+        List<DecTree> trees = new ArrayList<>();
+        for (int i = 0; i < population; i++) trees.add(new DecTree(gp.gen));
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            gp.evaluate(trees);
+            best = Math.min(best, (System.nanoTime() - start) / 1e9);
+        }
+        gp.setWorkers(1); // Shuts the pool down
+        return best;
+    }
+
+    // The result tree
+    static String run(List<TrainingData> data, int population, int generations, int workers) {
+        GP gp = gp(data, population, workers);
+        gp.setMaxGenerations(generations);
+        String result = gp.optimize().toString();
+        gp.setWorkers(1);
+        return result;
+    }
+}
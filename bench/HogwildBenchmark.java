@@ -0,0 +1,66 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Hogwild (lock-free, multi-threaded) per-instance training against the serial trainBatch() loop on the breast cancer data,
+// with each optimizer (Momentum's and Adam's state is shared by the workers like the weights)
+// Every run trains a fresh network from the same seed on the same number of samples, then scores the test split
+// Hogwild always runs with at least 2 workers, so the concurrent updates are exercised even on a single core
+// Usage: java -cp .:bench HogwildBenchmark [maxWorkers] [samples] [dataFile]
+
+public class HogwildBenchmark {
+    public static void main(String[] args) {
+        int maxWorkers = args.length > 0 ? Integer.parseInt(args[0]) : Math.max(2, Runtime.getRuntime().availableProcessors());
+        int samples = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        String file = args.length > 2 ? args[2] : "data/breast-cancer.data";
+        List<TrainingData> data = Main.readCancerDataFromFile(file);
+
+        for (boolean oneHot : new boolean[] {false, true}) {
+            int[] topology = {oneHot ? CancerData.ONE_HOT_SIZE : 9, 5, 3, 5, 2};
+            System.out.println("\nInput: " + (oneHot ? "51D one-hot (sparse)" : "9D dense") + ", " + samples + " samples, "
+                + Runtime.getRuntime().availableProcessors() + " available processors");
+            System.out.println("OPTIMIZER\tMODE\t\tSAMPLES/S\tACCURACY\tTEST COST");
+
+            run(data, topology, "sgd", "serial", 0, samples / 10); // Warm up the JIT
+            for (String optimizer : ANN.OPTIMIZERS) {
+                report(optimizer, "serial", samples, run(data, topology, optimizer, "serial", 0, samples));
+                for (int workers = 1; workers <= maxWorkers; workers++) {
+                    report(optimizer, "hogwild x" + workers, samples, run(data, topology, optimizer, "hogwild", workers, samples));
+                }
+            }
+        }
+    }
+
+    // {seconds, accuracy, average test cost}
+    static double[] run(List<TrainingData> data, int[] topology, String optimizer, String mode, int workers, int samples) {
+        Utils.rng = new RandomStreams(42);
+        ANN ann = new ANN(topology);
+        ann.setData(new ArrayList<>(data), 0.8);
+        ann.setOptimizer(ann.newOptimizer(optimizer));
+
+        long start = System.nanoTime();
+        if (mode.equals("serial")) {
+            for (int done = 0; done < samples; done += ann.batchSize) {
+                ann.trainBatch();
+            }
+        }
+        else {
+            ann.setWorkers(workers);
+            ann.trainHogwild(samples);
+            ann.setWorkers(1); // Shuts the pool down
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int correct = 0;
+        double cost = 0;
+        for (TrainingData t : ann.testing) {
+            Matrix prediction = ann.predict(t);
+            if (prediction.argMax().equals(t.outputData().argMax())) correct++;
+            cost += ann.costFunction.f(prediction, t.outputData());
+        }
+        return new double[] {seconds, (double)correct / ann.testing.length, cost / ann.testing.length};
+    }
+
+    static void report(String optimizer, String mode, int samples, double[] result) {
+        System.out.printf("%-10s\t%-12s\t%-12.0f\t%.4f\t\t%.4f%n", optimizer, mode, samples / result[0], result[1], result[2]);
+    }
+}
@@ -0,0 +1,74 @@
+// Compares the blocked GEMM in Matrix.mult against the original naive double[][] triple loop
+// Usage: java -cp .:bench MatrixBenchmark [maxSize]
+
+public class MatrixBenchmark {
+    static final int[] SIZES = {64, 128, 256, 512, 1024, 2048};
+
+    public static void main(String[] args) {
+        int maxSize = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+        Utils.rng = new RandomStreams(0xD3ADB33F);
+
+        System.out.println("SIZE\tNAIVE (GFLOP/s)\tBLOCKED (GFLOP/s)\tSPEEDUP");
+        for (int n : SIZES) {
+            if (n > maxSize) break;
+
+            Matrix X = Matrix.random(n, n);
+            Matrix Y = Matrix.random(n, n);
+            double[][] x = toArray(X);
+            double[][] y = toArray(Y);
+
+            double flops = 2.0 * n * n * n;
+            double naive = flops / time(() -> naiveMult(x, y)) / 1e9;
+            double blocked = flops / time(() -> X.mult(Y)) / 1e9;
+
+            System.out.printf("%d\t%.3f\t\t%.3f\t\t\t%.2fx%n", n, naive, blocked, blocked / naive);
+        }
+    }
+
+    // Best-of-N wall clock time in seconds, after warming up until the JIT has settled:
+    // at least 300ms, then 100ms rounds until one is no more than 10% faster than the best before it (5s at most)
+    static double time(Runnable r) {
+        long start = System.nanoTime();
+        double best = Double.MAX_VALUE;
+        while (true) {
+            long round = System.nanoTime();
+            int runs = 0;
+            do { r.run(); runs++; } while (System.nanoTime() - round < 100_000_000L);
+            double perRun = (double)(System.nanoTime() - round) / runs;
+            long elapsed = System.nanoTime() - start;
+            if (elapsed > 5_000_000_000L || (elapsed > 300_000_000L && perRun > 0.9 * best)) break;
+            best = Math.min(best, perRun);
+        }
+        return measure(r);
+    }
+
+    private static double measure(Runnable r) {
+        double best = Double.MAX_VALUE;
+        long budget = System.nanoTime() + 2_000_000_000L;
+        for (int i = 0; i < 5 && (i == 0 || System.nanoTime() < budget); i++) {
+            long start = System.nanoTime();
+            r.run();
+            best = Math.min(best, (System.nanoTime() - start) / 1e9);
+        }
+        return best;
+    }
+
+    static double[][] toArray(Matrix A) {
+        double[][] res = new double[A.R][A.C];
+        for (int r = 0; r < A.R; r++)
+            for (int c = 0; c < A.C; c++)
+                res[r][c] = A.get(r, c);
+        return res;
+    }
+
+    // The pre-flattening implementation of Matrix.mult
+    static double[][] naiveMult(double[][] x, double[][] y) {
+        int R = x.length, K = y.length, C = y[0].length;
+        double[][] z = new double[R][C];
+        for (int rZ = 0; rZ < R; rZ++)
+            for (int cZ = 0; cZ < C; cZ++)
+                for (int cA = 0; cA < K; cA++)
+                    z[rZ][cZ] += x[rZ][cA] * y[cA][cZ];
+        return z;
+    }
+}
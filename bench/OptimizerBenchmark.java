@@ -0,0 +1,93 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Wall-clock time and epochs to reach acceptableCost with each optimizer on the breast cancer data, on both training paths:
+//   BATCH: trainEpoch(), one optimizer step per batch on its average gradients (stops like ANN.train())
+//   INSTANCE: trainBatch(), one optimizer update per instance and layer (stops like ANN.train2(), which Main runs)
+// An epoch is one batch either way; a run stops as soon as its average cost is at most acceptableCost, or after MAX_EPOCHS
+// Every optimizer trains the same networks (same seeds, so the same initial weights and batches); medians over the seeds
+// Usage: java -cp .:bench OptimizerBenchmark [seeds] [dataFile]
+
+public class OptimizerBenchmark {
+    static final int[] TOPOLOGY = {9, 5, 3, 5, 2};
+    static final int MAX_EPOCHS = 20_000;
+
+    static final String[] PATHS = {"batch", "instance"};
+    static final String[] OPTIMIZERS = {"SGD", "Momentum", "Adam"};
+    static final double[] LEARNING_RATES = {0.0001, 0.001, 0.01, 0.1};
+
+    public static void main(String[] args) {
+        int seeds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        String file = args.length > 1 ? args[1] : "data/breast-cancer.data";
+        List<TrainingData> data = Main.readCancerDataFromFile(file);
+
+        for (int s = 1; s <= 3; s++) {
+            for (String path : PATHS) train(data, path, "Adam", 0.01, s); // Warm up the JIT
+        }
+
+        double acceptableCost = network(data, 1).acceptableCost;
+        System.out.println("Target cost " + acceptableCost + ", at most " + MAX_EPOCHS + " epochs, " + seeds + " seeds (medians)");
+        System.out.println("PATH\t\tOPTIMIZER\tLEARNING RATE\tREACHED\tEPOCHS\t\tTIME (ms)\tTEST ACCURACY");
+        for (String path : PATHS) {
+            for (String optimizer : OPTIMIZERS) {
+                for (double learningRate : LEARNING_RATES) {
+                    double[] epochs = new double[seeds];
+                    double[] millis = new double[seeds];
+                    double[] accuracy = new double[seeds];
+                    int reached = 0;
+                    for (int seed = 1; seed <= seeds; seed++) {
+                        double[] result = train(data, path, optimizer, learningRate, seed);
+                        epochs[seed - 1] = result[0];
+                        millis[seed - 1] = result[1];
+                        accuracy[seed - 1] = result[2];
+                        if (result[0] < MAX_EPOCHS) reached++;
+                    }
+                    System.out.printf("%-8s\t%-10s\t%-8s\t%d/%d\t%-8.0f\t%-8.1f\t%.4f%n",
+                        path, optimizer, learningRate, reached, seeds, median(epochs), median(millis), median(accuracy));
+                }
+            }
+        }
+    }
+
+    // {epochs, milliseconds, test accuracy}
+    static double[] train(List<TrainingData> data, String path, String optimizer, double learningRate, long seed) {
+        ANN ann = network(data, seed);
+        ann.learningRate = learningRate;
+        switch (optimizer) {
+            case "SGD":      ann.setOptimizer(ann.new SGD()); break;
+            case "Momentum": ann.setOptimizer(ann.new Momentum()); break;
+            case "Adam":     ann.setOptimizer(ann.new Adam()); break;
+            default: throw new IllegalArgumentException("Unknown optimizer: " + optimizer);
+        }
+
+        long start = System.nanoTime();
+        double avgCost = Double.MAX_VALUE;
+        int epoch;
+        for (epoch = 0; epoch < MAX_EPOCHS && Math.abs(avgCost) > ann.acceptableCost; epoch++) {
+            avgCost = path.equals("batch") ? ann.trainEpoch() : ann.trainBatch();
+        }
+        double millis = (System.nanoTime() - start) / 1e6;
+
+        int correct = 0;
+        ANN.Predictions predictions = ann.predictBatch(ann.testing);
+        for (int i = 0; i < ann.testing.length; i++) {
+            if (predictions.classes[i] == ann.testing[i].outputData().argMax().r) correct++;
+        }
+        return new double[] {epoch, millis, (double)correct / ann.testing.length};
+    }
+
+    static ANN network(List<TrainingData> data, long seed) {
+        Utils.rng = new RandomStreams(seed);
+        ANN ann = new ANN(TOPOLOGY);
+        ann.setData(new ArrayList<>(data), 0.8);
+        return ann;
+    }
+
+    static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int n = sorted.length;
+        return n % 2 == 1 ? sorted[n / 2] : (sorted[n / 2 - 1] + sorted[n / 2]) / 2;
+    }
+}
@@ -0,0 +1,37 @@
+import java.util.concurrent.ForkJoinPool;
+
+// Scaling curve of the fork/join GEMM from 1 to N worker threads, checked bit-for-bit against the serial path
+// Usage: java -cp .:bench ParallelGemmBenchmark [maxSize]
+
+public class ParallelGemmBenchmark {
+    static final int[] SIZES = {9, 256, 512, 1024, 2048};
+
+    public static void main(String[] args) {
+        int maxSize = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+        int cores = Runtime.getRuntime().availableProcessors();
+        Utils.rng = new RandomStreams(0xD3ADB33F);
+
+        System.out.println("SIZE\tTHREADS\tGFLOP/s\tSPEEDUP\tIDENTICAL");
+        for (int n : SIZES) {
+            if (n > maxSize) break;
+
+            Matrix X = Matrix.random(n, n);
+            Matrix Y = Matrix.random(n, n);
+            Matrix expected = X.mult(Y, false);
+            double flops = 2.0 * n * n * n;
+
+            double serial = flops / MatrixBenchmark.time(() -> X.mult(Y, false)) / 1e9;
+            System.out.printf("%d\tserial\t%.3f\t1.00x\ttrue%n", n, serial);
+
+            for (int threads = 1; threads <= cores; threads = threads < cores && threads * 2 > cores ? cores : threads * 2) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                Matrix.setPool(pool);
+                double gflops = flops / MatrixBenchmark.time(() -> X.mult(Y, true)) / 1e9;
+                boolean identical = X.mult(Y, true).equals(expected);
+                System.out.printf("%d\t%d\t%.3f\t%.2fx\t%b%n", n, threads, gflops, gflops / serial, identical);
+                pool.shutdown();
+            }
+        }
+        Matrix.setPool(ForkJoinPool.commonPool());
+    }
+}
@@ -0,0 +1,85 @@
+// Accuracy parity of the single-precision ANN against the double path on the breast cancer data
+// Both networks get the same seed, so they start from the same weights and see the same batches;
+// any difference comes from float rounding alone
+// Usage: java -cp .:bench PrecisionParity [dataFile] [seeds]
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class PrecisionParity {
+    static final int[] TOPOLOGY = {9, 5, 3, 5, 2};
+    static final int EPOCHS = 50;
+    static final double MAX_ACCURACY_DRIFT = 0.02;
+
+    public static void main(String[] args) {
+        String file = args.length > 0 ? args[0] : "data/breast-cancer.data";
+        int seeds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        List<TrainingData> data = Main.readCancerDataFromFile(file);
+
+        boolean ok = true;
+        for (String mode : new String[] {"trainEpoch", "trainBatch"}) {
+            System.out.println("\n" + mode);
+            System.out.println("SEED\tACC (double)\tACC (float)\tAGREEMENT\tCOST (double)\tCOST (float)\tMAX WEIGHT DIFF");
+            double worstDrift = 0;
+            for (int seed = 1; seed <= seeds; seed++) {
+                ANN d = train(data, seed, Matrix.Precision.DOUBLE, mode);
+                ANN f = train(data, seed, Matrix.Precision.FLOAT, mode);
+
+                double[] dr = evaluate(d);
+                double[] fr = evaluate(f);
+                int agree = 0;
+                for (TrainingData t : d.testing) {
+                    if (d.predict(t.inputData()).argMax().equals(f.predict(t.inputData()).argMax())) agree++;
+                }
+
+                worstDrift = Math.max(worstDrift, Math.abs(dr[0] - fr[0]));
+                System.out.printf("%d\t%.4f\t\t%.4f\t\t%.4f\t\t%.4f\t\t%.4f\t\t%.2e%n",
+                    seed, dr[0], fr[0], (double)agree / d.testing.length, dr[1], fr[1], maxWeightDiff(d, f));
+            }
+            boolean pass = worstDrift <= MAX_ACCURACY_DRIFT;
+            ok &= pass;
+            System.out.printf("Worst accuracy drift: %.4f (limit %.2f) %s%n", worstDrift, MAX_ACCURACY_DRIFT, pass ? "PASS" : "FAIL");
+        }
+        if (!ok) System.exit(1);
+    }
+
+    static ANN train(List<TrainingData> data, long seed, Matrix.Precision precision, String mode) {
+        Utils.rng = new RandomStreams(seed);
+        ANN ann = new ANN(TOPOLOGY, precision);
+        ann.setData(new ArrayList<>(data), 0.8);
+        for (int e = 0; e < EPOCHS; e++) {
+            if (mode.equals("trainEpoch")) ann.trainEpoch();
+            else ann.trainBatch();
+        }
+        return ann;
+    }
+
+    // {accuracy, average cost} on the test set
+    static double[] evaluate(ANN ann) {
+        int correct = 0;
+        double cost = 0;
+        for (TrainingData t : ann.testing) {
+            Matrix prediction = ann.predict(t.inputData());
+            if (prediction.argMax().equals(t.outputData().argMax())) correct++;
+            cost += ann.costFunction.f(prediction, t.outputData());
+        }
+        return new double[] {(double)correct / ann.testing.length, cost / ann.testing.length};
+    }
+
+    // Largest |w_double - w_float| over every weight and bias, relative to the largest double weight
+    static double maxWeightDiff(ANN d, ANN f) {
+        double diff = 0;
+        double scale = 0;
+        for (int l = 0; l < d.layers.length; l++) {
+            Matrix[] dm = {d.layers[l].weights, d.layers[l].biases};
+            Matrix[] fm = {f.layers[l].weights, f.layers[l].biases};
+            for (int m = 0; m < 2; m++)
+                for (int r = 0; r < dm[m].R; r++)
+                    for (int c = 0; c < dm[m].C; c++) {
+                        diff = Math.max(diff, Math.abs(dm[m].get(r, c) - fm[m].get(r, c)));
+                        scale = Math.max(scale, Math.abs(dm[m].get(r, c)));
+                    }
+        }
+        return scale == 0 ? diff : diff / scale;
+    }
+}
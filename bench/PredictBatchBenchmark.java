@@ -0,0 +1,47 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Inference throughput of ANN.predictBatch (one GEMM per layer per chunk, optionally on a parallel stream)
+// against calling ANN.predict once per instance, and whether the predicted classes agree
+// Usage: java -cp .:bench PredictBatchBenchmark [records]
+
+public class PredictBatchBenchmark {
+    static final int[][] TOPOLOGIES = {{9, 5, 3, 5, 2}, {64, 128, 128, 2}};
+
+    static volatile Object sink; // Keeps results alive so the JIT can't drop the work
+
+    public static void main(String[] args) {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        Utils.rng = new RandomStreams(0xD3ADB33F);
+
+        System.out.println(records + " records, " + Runtime.getRuntime().availableProcessors() + " available processors");
+        System.out.println("TOPOLOGY\t\tPREDICT (rec/s)\tBATCH (rec/s)\tPARALLEL (rec/s)\tSPEEDUP\tCLASS MISMATCHES");
+        for (int[] topology : TOPOLOGIES) {
+            ANN ann = new ANN(topology);
+            ann.layers[ann.layers.length - 1].activation = ann.new Sigmoid(); // Spread the outputs out so argmax isn't tied at 0
+            double[][] rows = new double[records][topology[0]];
+            List<TrainingData> data = new ArrayList<>();
+            for (int i = 0; i < records; i++) {
+                BatchTrainingBenchmark.Synthetic instance = new BatchTrainingBenchmark.Synthetic(topology[0]);
+                for (int f = 0; f < topology[0]; f++) rows[i][f] = instance.input.get(f, 0) - 0.5;
+                instance.input.copyFrom(Matrix.columnVector(rows[i]));
+                data.add(instance);
+            }
+            TrainingData[] instances = data.toArray(new TrainingData[0]);
+
+            double single = records / MatrixBenchmark.time(() -> {
+                for (TrainingData t : instances) sink = ann.predict(t);
+            });
+            double batch = records / MatrixBenchmark.time(() -> sink = ann.predictBatch(instances));
+            double parallel = records / MatrixBenchmark.time(() -> sink = ann.predictBatch(rows, true));
+
+            ANN.Predictions predictions = ann.predictBatch(rows, true);
+            int mismatches = 0;
+            for (int i = 0; i < records; i++) {
+                if (ann.predict(instances[i]).argMax().r != predictions.classes[i]) mismatches++;
+            }
+            System.out.printf("%-20s\t%-12.0f\t%-12.0f\t%-12.0f\t\t%.2fx\t%d%n", java.util.Arrays.toString(topology),
+                single, batch, parallel, Math.max(batch, parallel) / single, mismatches);
+        }
+    }
+}
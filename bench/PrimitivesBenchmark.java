@@ -0,0 +1,116 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+// Baseline suite for the Matrix primitives across a sweep of shapes, from 9x1 up to 2048x2048
+// For every op and shape it reports throughput, per-op latency (mean, p50, p99) and allocation (bytes/op, MB/s)
+// Usage: java -cp .:bench PrimitivesBenchmark [maxSize] [op,op,...]
+//
+// Shapes are R x C. `mult` and `solve` use an R x R left-hand side, so R x 1 shapes are matrix-vector products
+// `solve` factorises every call; `solve (cached)` reuses the LU cached on the matrix, like repeated A.solve(b) calls
+
+public class PrimitivesBenchmark {
+    static final int[][] SHAPES = {
+        {9, 1}, {53, 1}, {9, 9}, {64, 64}, {256, 256}, {512, 512}, {1024, 1024}, {2048, 2048}
+    };
+    static final String[] OPS = {"mult", "transpose", "add", "hadamard", "zipWith", "map", "solve", "solve (cached)", "argMax"};
+
+    static final long WARMUP_NS = 200_000_000L;
+    static final long MEASURE_NS = 500_000_000L;
+    static final long SAMPLE_NS = 20_000L;  // Ops faster than this are timed in batches, so nanoTime() doesn't dominate
+    static final int MIN_SAMPLES = 3;
+
+    static volatile Object sink; // Keeps results alive so the JIT can't drop the work
+
+    public static void main(String[] args) {
+        int maxSize = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+        String[] ops = args.length > 1 ? args[1].split(",") : OPS;
+        Utils.rng = new RandomStreams(0xD3ADB33F);
+        DoubleBinaryOperator zip = (x, y) -> x * y - x;
+        DoubleUnaryOperator relu = x -> Math.max(0, x);
+
+        System.out.println("OP\t\tSHAPE\t\tOPS/S\t\tMEAN (us)\tP50 (us)\tP99 (us)\tALLOC (B/op)\tALLOC (MB/s)");
+        for (int[] shape : SHAPES) {
+            int R = shape[0], C = shape[1];
+            if (Math.max(R, C) > maxSize) continue;
+
+            Matrix X = Matrix.random(R, C);
+            Matrix Y = Matrix.random(R, C);
+            // Diagonally dominant, so it's comfortably non-singular
+            Matrix A = Matrix.random(R, R).add(Matrix.identity(R).mult(R));
+
+            for (String op : ops) {
+                Runnable r;
+                switch (op) {
+                    case "mult":            r = () -> sink = A.mult(X); break;
+                    case "transpose":       r = () -> sink = X.transpose(); break;
+                    case "add":             r = () -> sink = X.add(Y); break;
+                    case "hadamard":        r = () -> sink = X.hadamard(Y); break;
+                    case "zipWith":         r = () -> sink = X.zipWith(Y, zip); break;
+                    case "map":             r = () -> sink = X.map(relu); break;
+                    case "solve":           r = () -> sink = new Matrix.LUDecomposition(A).solve(X); break;
+                    case "solve (cached)":  r = () -> sink = A.solve(X); break;
+                    case "argMax":          r = () -> sink = X.argMax(); break;
+                    default: throw new IllegalArgumentException("Unknown op: " + op + " (options: " + String.join(",", OPS) + ")");
+                }
+                Measurement m = measure(r);
+                System.out.printf("%-15s\t%-15s\t%-12.1f\t%-12.3f\t%-12.3f\t%-12.3f\t%-12.0f\t%.1f%n",
+                    op, R + "x" + C, m.opsPerSecond, m.meanNs / 1e3, m.p50Ns / 1e3, m.p99Ns / 1e3, m.bytesPerOp, m.allocMBPerSecond);
+            }
+        }
+    }
+
+    static class Measurement {
+        double opsPerSecond;
+        double meanNs, p50Ns, p99Ns;
+        double bytesPerOp;
+        double allocMBPerSecond;
+    }
+
+    // Warm up, then time batches of `op` for ~MEASURE_NS (at least MIN_SAMPLES batches)
+    // Latencies are per op, averaged within each batch; allocation is counted on this thread only
+    static Measurement measure(Runnable op) {
+        long warmupEnd = System.nanoTime() + WARMUP_NS;
+        int warmupOps = 0;
+        do { op.run(); warmupOps++; } while (System.nanoTime() < warmupEnd);
+
+        // Size the batches from the warmup rate
+        double nsPerOp = (double)WARMUP_NS / warmupOps;
+        int batch = (int)Math.max(1, Math.min(1 << 20, SAMPLE_NS / nsPerOp));
+
+        // Sized up front (batches take at least ~SAMPLE_NS) so growing it doesn't show up as allocation
+        long[] samples = new long[(int)(2 * MEASURE_NS / SAMPLE_NS) + MIN_SAMPLES];
+        int n = 0;
+        long bytes0 = allocatedBytes();
+        long start = System.nanoTime();
+        long end = start + MEASURE_NS;
+        long now = start;
+        while (n < MIN_SAMPLES || now < end) {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < batch; i++) op.run();
+            now = System.nanoTime();
+            if (n == samples.length) samples = Arrays.copyOf(samples, n * 2);
+            samples[n++] = now - t0;
+        }
+        long elapsed = now - start;
+        long bytes = allocatedBytes() - bytes0;
+
+        Arrays.sort(samples, 0, n);
+        long ops = (long)n * batch;
+        Measurement m = new Measurement();
+        m.opsPerSecond = ops / (elapsed / 1e9);
+        m.meanNs = (double)elapsed / ops;
+        m.p50Ns = (double)samples[n / 2] / batch;
+        m.p99Ns = (double)samples[Math.min(n - 1, (int)Math.ceil(n * 0.99) - 1)] / batch;
+        m.bytesPerOp = (double)bytes / ops;
+        m.allocMBPerSecond = bytes / 1e6 / (elapsed / 1e9);
+        return m;
+    }
+
+    // Bytes allocated so far by the current thread (HotSpot only)
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean())
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,92 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// QuantizedANN against the double ANN it was built from:
+//   accuracy drift on the breast cancer test split (calibrated on the training split), for the default network
+//   (ReLU output, train2()) and for one trained to confident outputs (Sigmoid output, Adam), over several seeds
+//   parameter memory and scoring throughput (predictBatch and one instance at a time) on wider random networks
+// Usage: java -cp .:bench QuantizationBenchmark [seeds] [records] [dataFile]
+
+public class QuantizationBenchmark {
+    static final int[][] TOPOLOGIES = {{9, 5, 3, 5, 2}, {64, 128, 128, 2}, {256, 512, 512, 10}};
+    static final int ADAM_EPOCHS = 2000;
+
+    static volatile Object sink; // Keeps results alive so the JIT can't drop the work
+
+    public static void main(String[] args) {
+        int seeds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int records = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        String file = args.length > 2 ? args[2] : "data/breast-cancer.data";
+        List<TrainingData> data = Main.readCancerDataFromFile(file);
+
+        System.out.println("NETWORK\t\t\tSEED\tANN ACCURACY\tINT8 ACCURACY\tDRIFT\t\tAGREEMENT");
+        for (boolean confident : new boolean[] {false, true}) {
+            for (int seed = 1; seed <= seeds; seed++) {
+                ANN ann = trained(data, seed, confident);
+                QuantizedANN quantized = new QuantizedANN(ann, ann.training);
+                ANN.Predictions expected = ann.predictBatch(ann.testing);
+                ANN.Predictions actual = quantized.predictBatch(ann.testing);
+                int correct = 0, quantizedCorrect = 0, agree = 0;
+                for (int i = 0; i < ann.testing.length; i++) {
+                    int label = ann.testing[i].outputData().argMax().r;
+                    if (expected.classes[i] == label) correct++;
+                    if (actual.classes[i] == label) quantizedCorrect++;
+                    if (actual.classes[i] == expected.classes[i]) agree++;
+                }
+                double n = ann.testing.length;
+                System.out.printf("%-20s\t%d\t%.4f\t\t%.4f\t\t%+.4f\t\t%.4f%n", confident ? "Sigmoid + Adam" : "default (train2)",
+                    seed, correct / n, quantizedCorrect / n, (quantizedCorrect - correct) / n, agree / n);
+            }
+        }
+
+        System.out.println();
+        System.out.println(records + " records");
+        System.out.println("TOPOLOGY\t\tMEMORY (B)\tINT8 (B)\tBATCH (rec/s)\tINT8 BATCH (rec/s)\tPREDICT (rec/s)\tINT8 PREDICT (rec/s)\tAGREEMENT");
+        Utils.rng = new RandomStreams(0xD3ADB33F);
+        for (int[] topology : TOPOLOGIES) {
+            ANN ann = new ANN(topology);
+            ann.layers[ann.layers.length - 1].activation = ann.new Sigmoid(); // Spread the outputs out so argmax isn't tied at 0
+            TrainingData[] instances = new TrainingData[records];
+            for (int i = 0; i < records; i++) {
+                BatchTrainingBenchmark.Synthetic instance = new BatchTrainingBenchmark.Synthetic(topology[0]);
+                instance.input.addInPlace(Matrix.ones(topology[0], 1).scaleInPlace(-0.5));
+                instances[i] = instance;
+            }
+            QuantizedANN quantized = new QuantizedANN(ann, instances);
+
+            double batch = records / MatrixBenchmark.time(() -> sink = ann.predictBatch(instances));
+            double quantizedBatch = records / MatrixBenchmark.time(() -> sink = quantized.predictBatch(instances));
+            double single = records / MatrixBenchmark.time(() -> {
+                for (TrainingData t : instances) sink = ann.predict(t);
+            });
+            double quantizedSingle = records / MatrixBenchmark.time(() -> {
+                int sum = 0;
+                for (TrainingData t : instances) sum += quantized.predictClass(t);
+                sink = sum;
+            });
+
+            int[] expected = ann.predictBatch(instances).classes;
+            int[] actual = quantized.predictBatch(instances).classes;
+            int agree = 0;
+            for (int i = 0; i < records; i++) {
+                if (expected[i] == actual[i]) agree++;
+            }
+            System.out.printf("%-20s\t%-10d\t%-8d\t%-12.0f\t%-12.0f\t\t%-12.0f\t%-12.0f\t\t%.4f%n", java.util.Arrays.toString(topology),
+                QuantizedANN.bytes(ann), quantized.bytes(), batch, quantizedBatch, single, quantizedSingle, (double)agree / records);
+        }
+    }
+
+    static ANN trained(List<TrainingData> data, long seed, boolean confident) {
+        Utils.rng = new RandomStreams(seed);
+        ANN ann = new ANN(new int[] {9, 5, 3, 5, 2});
+        ann.setData(new ArrayList<>(data), 0.8);
+        if (!confident) {
+            ann.train2();
+            return ann;
+        }
+        ann.layers[ann.layers.length - 1].activation = ann.new Sigmoid();
+        ann.setOptimizer(ann.new Adam());
+        for (int e = 0; e < ADAM_EPOCHS; e++) ann.trainEpoch();
+        return ann;
+    }
+}
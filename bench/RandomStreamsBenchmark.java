@@ -0,0 +1,83 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Random draws/sec across threads: every thread on one shared java.util.Random (a CAS on a single seed, the old Utils.gen)
+// against every thread on its own RandomStreams stream, and whether seeded GP/ANN runs repeat exactly
+// Usage: java -cp .:bench RandomStreamsBenchmark [maxThreads] [drawsPerThread] [dataFile]
+
+public class RandomStreamsBenchmark {
+    static volatile double sink; // Keeps results alive so the JIT can't drop the work
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Math.max(4, Runtime.getRuntime().availableProcessors());
+        int draws = args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000;
+        String file = args.length > 2 ? args[2] : "data/breast-cancer.data";
+
+        System.out.println(draws + " draws per thread, " + Runtime.getRuntime().availableProcessors() + " available processors");
+        System.out.println("THREADS\tSHARED RANDOM (draws/s)\tPER-THREAD STREAMS (draws/s)\tSPEEDUP");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            Random shared = new Random(42);
+            RandomStreams streams = new RandomStreams(42);
+            double sharedRate = (double)threads * draws / time(threads, t -> {
+                double sum = 0;
+                for (int i = 0; i < draws; i++) sum += shared.nextDouble();
+                return sum;
+            });
+            double streamRate = (double)threads * draws / time(threads, t -> {
+                SplittableRandom random = streams.stream("bench", t);
+                double sum = 0;
+                for (int i = 0; i < draws; i++) sum += random.nextDouble();
+                return sum;
+            });
+            System.out.printf("%d\t%-12.3e\t\t%-12.3e\t\t\t%.2fx%n", threads, sharedRate, streamRate, streamRate / sharedRate);
+        }
+
+        List<TrainingData> data = Main.readCancerDataFromFile(file);
+        System.out.println("GP repeats from its seed: " + gpResult(data, 42).equals(gpResult(data, 42)));
+        System.out.println("ANN repeats from its seed: " + (annCost(data, 42) == annCost(data, 42)));
+    }
+
+    interface Work {
+        double run(int thread);
+    }
+
+    // Best of 3 wall-clock seconds for `threads` threads each running work (after one warmup round)
+    static double time(int threads, Work work) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            double best = Double.MAX_VALUE;
+            for (int round = 0; round < 4; round++) {
+                long start = System.nanoTime();
+                List<Future<Double>> futures = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    int thread = t;
+                    futures.add(pool.submit(() -> work.run(thread)));
+                }
+                for (Future<Double> f : futures) sink = f.get();
+                if (round > 0) best = Math.min(best, (System.nanoTime() - start) / 1e9);
+            }
+            return best;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    static String gpResult(List<TrainingData> data, long seed) {
+        GP gp = new GP(new RandomStreams(seed).stream("gp"));
+        gp.setData(new ArrayList<>(data), 0.8);
+        return gp.optimize().toString();
+    }
+
+    static double annCost(List<TrainingData> data, long seed) {
+        ANN ann = new ANN(new int[] {9, 5, 3, 5, 2}, Matrix.Precision.DOUBLE, new RandomStreams(seed).stream("ann"));
+        ann.setData(new ArrayList<>(data), 0.8);
+        double cost = 0;
+        for (int e = 0; e < 200; e++) cost = ann.trainEpoch();
+        return cost;
+    }
+}
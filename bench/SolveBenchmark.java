@@ -0,0 +1,85 @@
+// Repeated solves against the same matrix: re-running elimination per right-hand side (the old Matrix.solve)
+// versus a cached LU factorisation, solved one column at a time and as a single multi-RHS solve
+// Usage: java -cp .:bench SolveBenchmark
+
+public class SolveBenchmark {
+    static final int[] SIZES = {9, 64, 256, 512};
+    static final int RHS = 64;
+
+    public static void main(String[] args) {
+        Utils.rng = new RandomStreams(0xD3ADB33F);
+
+        System.out.println("SIZE\tRHS\tELIMINATION (ms)\tCACHED LU (ms)\tMULTI-RHS (ms)\tSPEEDUP\tMAX RESIDUAL");
+        for (int n : SIZES) {
+            // Diagonally dominant, so it's comfortably non-singular
+            Matrix A = Matrix.random(n, n).add(Matrix.identity(n).mult(n));
+            Matrix B = Matrix.random(n, RHS);
+            Matrix[] columns = new Matrix[RHS];
+            for (int c = 0; c < RHS; c++) {
+                double[] col = new double[n];
+                for (int r = 0; r < n; r++) col[r] = B.get(r, c);
+                columns[c] = Matrix.columnVector(col);
+            }
+
+            double elimination = MatrixBenchmark.time(() -> {
+                for (Matrix b : columns) eliminationSolve(A, b);
+            }) * 1e3;
+            double cached = MatrixBenchmark.time(() -> {
+                Matrix.LUDecomposition lu = new Matrix.LUDecomposition(A);
+                for (Matrix b : columns) lu.solve(b);
+            }) * 1e3;
+            double multi = MatrixBenchmark.time(() -> new Matrix.LUDecomposition(A).solve(B)) * 1e3;
+
+            Matrix residual = A.mult(A.solve(B)).sub(B);
+            double maxResidual = 0;
+            for (int r = 0; r < n; r++)
+                for (int c = 0; c < RHS; c++)
+                    maxResidual = Math.max(maxResidual, Math.abs(residual.get(r, c)));
+
+            System.out.printf("%d\t%d\t%.3f\t\t\t%.3f\t\t%.3f\t\t%.1fx\t%.2e%n",
+                n, RHS, elimination, cached, multi, elimination / Math.min(cached, multi), maxResidual);
+        }
+    }
+
+    // The pre-LU implementation of Matrix.solve: full Gaussian elimination for every right-hand side
+    static double[] eliminationSolve(Matrix M, Matrix rhs) {
+        int N = M.C;
+        double[][] A = new double[N][N];
+        double[] b = new double[N];
+        for (int r = 0; r < N; r++) {
+            for (int c = 0; c < N; c++) A[r][c] = M.get(r, c);
+            b[r] = rhs.get(r, 0);
+        }
+
+        for (int c = 0; c < N; c++) {
+            int max = c;
+            for (int c2 = c + 1; c2 < N; c2++)
+                if (Math.abs(A[c2][c]) > Math.abs(A[max][c]))
+                    max = c2;
+            double[] tempRow = A[c]; A[c] = A[max]; A[max] = tempRow;
+            double temp = b[c]; b[c] = b[max]; b[max] = temp;
+
+            if (A[c][c] == 0.0)
+                throw new RuntimeException("Matrix is singular.");
+
+            for (int j = c + 1; j < N; j++)
+                b[j] -= b[c] * A[j][c] / A[c][c];
+
+            for (int j = c + 1; j < N; j++) {
+                double m = A[j][c] / A[c][c];
+                for (int k = c + 1; k < N; k++)
+                    A[j][k] -= A[c][k] * m;
+                A[j][c] = 0.0;
+            }
+        }
+
+        double[] x = new double[N];
+        for (int j = N - 1; j >= 0; j--) {
+            double t = 0.0;
+            for (int k = j + 1; k < N; k++)
+                t += A[j][k] * x[k];
+            x[j] = (b[j] - t) / A[j][j];
+        }
+        return x;
+    }
+}
@@ -0,0 +1,98 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+// ANN.observe() on ever longer streams: throughput, total bytes allocated (the ring buffer and workspace once, so it
+// should stay flat whatever the stream length) and test accuracy, against trainEpoch() making the same number of updates
+// The stream replays the training split in a fresh random order every pass, without materialising it
+// Usage: java -cp .:bench StreamingBenchmark [dataFile]
+
+public class StreamingBenchmark {
+    static final int[] TOPOLOGY = {9, 5, 3, 5, 2};
+    static final long[] LENGTHS = {10_000, 100_000, 1_000_000, 10_000_000};
+    static final int[] STRIDES = {0, 5}; // 0: disjoint batches; 5: a sliding window reusing each instance batchSize/5 times
+
+    public static void main(String[] args) {
+        String file = args.length > 0 ? args[0] : "data/breast-cancer.data";
+        List<TrainingData> data = Main.readCancerDataFromFile(file);
+
+        stream(data, 0, 100_000); // Warm up the JIT
+
+        System.out.println("STREAM LENGTH\tSTRIDE\tUPDATES\t\tOBSERVE (inst/s)\tALLOCATED (B)\tACCURACY\tTRAINEPOCH ACCURACY");
+        for (long length : LENGTHS) {
+            for (int stride : STRIDES) {
+                stream(data, stride, length);
+            }
+        }
+    }
+
+    static void stream(List<TrainingData> data, int stride, long length) {
+        ANN ann = network(data);
+        ann.streamStride = stride;
+        Replay replay = new Replay(ann.training, length);
+
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        int updates = ann.observeAll(replay);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        bytes = allocatedBytes() - bytes;
+
+        ANN batched = network(data);
+        for (int u = 0; u < updates; u++) batched.trainEpoch();
+
+        System.out.printf("%-12d\t%d\t%-10d\t%-12.0f\t\t%-10d\t%.4f\t\t%.4f%n", length, stride, updates,
+            length / seconds, bytes, accuracy(ann), accuracy(batched));
+    }
+
+    static ANN network(List<TrainingData> data) {
+        Utils.rng = new RandomStreams(42);
+        ANN ann = new ANN(TOPOLOGY);
+        ann.setData(new ArrayList<>(data), 0.8);
+        return ann;
+    }
+
+    static double accuracy(ANN ann) {
+        ANN.Predictions predictions = ann.predictBatch(ann.testing);
+        int correct = 0;
+        for (int i = 0; i < ann.testing.length; i++) {
+            if (predictions.classes[i] == ann.testing[i].outputData().argMax().r) correct++;
+        }
+        return (double)correct / ann.testing.length;
+    }
+
+    // `length` instances drawn from `instances`, reshuffled in place every pass; allocates nothing per instance
+    static class Replay implements Iterator<TrainingData> {
+        final TrainingData[] instances;
+        final Random random = new Random(7);
+        long remaining;
+        int next;
+
+        Replay(TrainingData[] instances, long length) {
+            this.instances = instances.clone();
+            this.remaining = length;
+            this.next = this.instances.length;
+        }
+
+        @Override public boolean hasNext() { return remaining > 0; }
+
+        @Override public TrainingData next() {
+            if (next == instances.length) {
+                for (int i = instances.length - 1; i > 0; i--) {
+                    int j = random.nextInt(i + 1);
+                    TrainingData t = instances[i];
+                    instances[i] = instances[j];
+                    instances[j] = t;
+                }
+                next = 0;
+            }
+            remaining--;
+            return instances[next++];
+        }
+    }
+
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+}
@@ -0,0 +1,95 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+// Allocation profile of ANN.trainEpoch() across training: the first epoch sizes the TrainingWorkspace,
+// every epoch after that should allocate nothing on the calling thread or in the workers' shards
+// Counts bytes allocated by every live thread (HotSpot only); with more than one worker the pool itself still
+// allocates a small wait node (~24B) whenever the calling thread blocks on it, which is constant per epoch
+// Usage: java -cp .:bench TrainingAllocationBenchmark [epochs] [dataFile]
+
+public class TrainingAllocationBenchmark {
+    static final int WINDOWS = 5;
+
+    static volatile double sink; // Keeps the costs alive so the JIT can't drop the work
+
+    public static void main(String[] args) {
+        int epochs = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        String file = args.length > 1 ? args[1] : "data/breast-cancer.data";
+        List<TrainingData> data = Main.readCancerDataFromFile(file);
+        int workers = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+        System.out.println(epochs + " epochs, B/epoch per window of " + epochs / WINDOWS + " epochs");
+        System.out.print("CONFIG\t\t\t\tFIRST EPOCH (B)");
+        for (int w = 1; w <= WINDOWS; w++) System.out.print("\tWINDOW " + w);
+        System.out.println("\tMB/s");
+        for (Matrix.Precision precision : Matrix.Precision.values()) {
+            for (boolean oneHot : new boolean[] {false, true}) {
+                for (int w : new int[] {1, workers}) {
+                    run(data, precision, oneHot, w, epochs);
+                }
+            }
+        }
+    }
+
+    static void run(List<TrainingData> data, Matrix.Precision precision, boolean oneHot, int workers, int epochs) {
+        // Warm up on a throwaway network first: until the JIT compiles them, the vector kernels allocate as they run
+        ANN warmup = network(data, precision, oneHot, workers);
+        for (int e = 0; e < epochs; e++) {
+            sink = warmup.trainEpoch();
+        }
+        warmup.setWorkers(1); // Shuts the pool down
+
+        ANN ann = network(data, precision, oneHot, workers);
+        long before = allocatedBytes();
+        sink = ann.trainEpoch();
+        long first = allocatedBytes() - before - PROBE_BYTES;
+
+        String config = precision + (oneHot ? " one-hot" : " dense") + " x" + workers;
+        System.out.printf("%-24s\t%-12d", config, first);
+        int window = epochs / WINDOWS;
+        long totalBytes = 0;
+        long start = System.nanoTime();
+        for (int w = 0; w < WINDOWS; w++) {
+            long bytes = allocatedBytes();
+            for (int e = 0; e < window; e++) {
+                sink = ann.trainEpoch();
+            }
+            bytes = allocatedBytes() - bytes - PROBE_BYTES;
+            totalBytes += bytes;
+            System.out.printf("\t%.1f\t", (double)bytes / window);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("\t%.2f%n", totalBytes / 1e6 / seconds);
+        ann.setWorkers(1); // Shuts the pool down
+    }
+
+    static ANN network(List<TrainingData> data, Matrix.Precision precision, boolean oneHot, int workers) {
+        Utils.rng = new RandomStreams(42);
+        ANN ann = new ANN(new int[] {oneHot ? CancerData.ONE_HOT_SIZE : 9, 5, 3, 5, 2}, precision);
+        ann.setData(new ArrayList<>(data), 0.8);
+        ann.setWorkers(workers);
+        return ann;
+    }
+
+    // What allocatedBytes() allocates itself (its thread id and byte count arrays), measured back to back
+    static final long PROBE_BYTES = probeBytes();
+
+    static long probeBytes() {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < 1000; i++) {
+            min = Math.min(min, -allocatedBytes() + allocatedBytes());
+        }
+        return min;
+    }
+
+    // Bytes allocated so far by every live thread
+    static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) total += bytes;
+        }
+        return total;
+    }
+}